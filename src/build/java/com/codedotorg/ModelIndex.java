@@ -0,0 +1,102 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes model.index, the list of the bundled model's files with their checksums, at build time.
+ * Maven runs it as a single-file program before the resources are copied, so the index always
+ * matches the model in the source tree: replacing or adding a model file changes the index,
+ * and with it the name of the directory ModelResources extracts the model into.
+ *
+ * Usage: java ModelIndex.java MODEL_DIRECTORY INDEX_FILE
+ */
+public final class ModelIndex {
+
+    private ModelIndex() {
+    }
+
+    /**
+     * Lists every file below the model directory and writes the index.
+     *
+     * @param args the model directory and the index file to write
+     * @throws IOException if a model file cannot be read or the index cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: java ModelIndex.java MODEL_DIRECTORY INDEX_FILE");
+        }
+
+        Path modelDirectory = Paths.get(args[0]);
+        Path indexFile = Paths.get(args[1]);
+
+        List<Path> files;
+
+        // Sort by path so the same files always give the same index, whatever order the file system lists them in
+        try (Stream<Path> paths = Files.walk(modelDirectory)) {
+            files = paths.filter(Files::isRegularFile)
+                .filter(path -> !path.getFileName().toString().equals("model.index"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        StringBuilder index = new StringBuilder();
+        index.append("# The files of the bundled model, extracted to the on-disk cache on first start.\n");
+        index.append("# Generated by the build from src/main/resources; do not edit.\n");
+        index.append("# Each line is: <sha-256> <size in bytes> <path relative to this directory>\n");
+
+        for (Path file : files) {
+            // The index uses '/' on every platform, since it names classpath resources
+            String relative = modelDirectory.relativize(file).toString().replace('\\', '/');
+            index.append(sha256(file)).append(' ').append(Files.size(file)).append(' ').append(relative).append('\n');
+        }
+
+        Files.createDirectories(indexFile.toAbsolutePath().getParent());
+        Files.write(indexFile, index.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Wrote " + files.size() + " model files to " + indexFile);
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a file, reading it in chunks.
+     *
+     * @param file the file to hash
+     * @return the checksum in lowercase hex
+     * @throws IOException if the file cannot be read
+     */
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        byte[] chunk = new byte[64 * 1024];
+
+        try (InputStream stream = Files.newInputStream(file)) {
+            int read;
+
+            while ((read = stream.read(chunk)) > 0) {
+                digest.update(chunk, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return hex.toString();
+    }
+}
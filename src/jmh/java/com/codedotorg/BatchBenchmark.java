@@ -0,0 +1,82 @@
+package com.codedotorg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures batched predictions whose batch size changes from one run to the next,
+ * as with MicroBatcher and MultiCameraController. Each operation runs one batch of
+ * a single frame and one batch of batchSize frames. Run with -prof gc: the input and
+ * softmax arrays are reused across both sizes, so gc.alloc.rate.norm only shows the
+ * result lists and Predictions, a few hundred bytes per frame, and no input arrays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Dtmexample.model.dir=src/main/resources/com/codedotorg/model/")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BatchBenchmark {
+
+    /** The size of the larger batch, run after every single-frame batch */
+    @Param({"4", "8"})
+    public int batchSize;
+
+    /** The synthetic camera frame, repeated to fill the batches */
+    private Mat frame;
+
+    /** The model under test */
+    private ModelManager model;
+
+    /** A batch of one frame */
+    private List<Mat> single;
+
+    /** A batch of batchSize frames */
+    private List<Mat> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = SyntheticFrames.create("640x480");
+        model = new ModelManager(System.getProperty("tmexample.model.dir"));
+
+        if (!model.isModelLoaded()) {
+            throw new IllegalStateException("The model could not be loaded from " + System.getProperty("tmexample.model.dir"));
+        }
+
+        single = new ArrayList<>();
+        single.add(frame);
+        batch = new ArrayList<>();
+
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(frame);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        model.close();
+    }
+
+    /** One batch of a single frame followed by one batch of batchSize frames */
+    @Benchmark
+    public int alternateBatchSizes() {
+        return model.predictBatch(single).size() + model.predictBatch(batch).size();
+    }
+}
@@ -0,0 +1,74 @@
+package com.codedotorg;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full prediction against the SavedModel on disk, on the CPU.
+ * The model directory defaults to the one in the source tree and can be
+ * changed with -Dtmexample.model.dir=/path/to/model/.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "-Dtmexample.model.dir=src/main/resources/com/codedotorg/model/")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InferenceBenchmark {
+
+    /** The size of the synthetic camera frame */
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    /** The synthetic camera frame */
+    private Mat frame;
+
+    /** The model under test */
+    private ModelManager model;
+
+    /** The caller-owned score array of the allocation-free path */
+    private float[] scores;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = SyntheticFrames.create(resolution);
+        model = new ModelManager(System.getProperty("tmexample.model.dir"));
+
+        if (!model.isModelLoaded()) {
+            throw new IllegalStateException("The model could not be loaded from " + System.getProperty("tmexample.model.dir"));
+        }
+
+        scores = new float[model.predict(frame).getClassCount()];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+    }
+
+    /** Preprocessing, session run and postprocessing, returning a label */
+    @Benchmark
+    public String predictClass() {
+        return model.predictClass(frame);
+    }
+
+    /** The same run into a reused score array, without building a Prediction */
+    @Benchmark
+    public int predictInto() {
+        return model.predictInto(frame, scores);
+    }
+}
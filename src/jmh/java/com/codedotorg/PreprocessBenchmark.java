@@ -0,0 +1,82 @@
+package com.codedotorg;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.Tensor;
+
+/**
+ * Measures the steps that turn a camera frame into the model's input tensor.
+ * Run with -prof gc to see the allocation rate of each step per frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PreprocessBenchmark {
+
+    /** The size of the synthetic camera frame */
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    /** The synthetic camera frame */
+    private Mat frame;
+
+    /** Crops, resizes and normalizes to the Teachable Machine input size */
+    private Preprocessor preprocessor;
+
+    /** The reusable Mats and arrays of the benchmark thread */
+    private InferenceBuffers buffers;
+
+    /** A preprocessed image, used by the steps that follow preprocessing */
+    private Mat image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = SyntheticFrames.create(resolution);
+        preprocessor = new Preprocessor(224, 224);
+        buffers = new InferenceBuffers();
+        image = preprocessor.process(frame, buffers);
+        ModelManager.copyImageToInput(image, buffers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+    }
+
+    /** Crop, resize, BGR to RGB and float conversion in OpenCV */
+    @Benchmark
+    public Mat preprocess() {
+        return preprocessor.process(frame, buffers);
+    }
+
+    /** Copy of the preprocessed floats into the reusable input array */
+    @Benchmark
+    public float[] copyImageToInput() {
+        return ModelManager.copyImageToInput(image, buffers);
+    }
+
+    /** Creation and release of the native input tensor */
+    @Benchmark
+    public int createInputTensor() {
+        try (Tensor<Float> tensor = ModelManager.createInputTensor(image, 1, buffers)) {
+            return tensor.numElements();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.codedotorg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the copy of a camera frame into the preview's pixel memory.
+ * The JavaFX toolkit is not started, so only the native conversion into the
+ * direct buffer behind the PixelBuffer is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RenderBenchmark {
+
+    /** The size of the synthetic camera frame */
+    @Param({"320x240", "640x480", "1280x720"})
+    public String resolution;
+
+    /** The synthetic camera frame */
+    private Mat frame;
+
+    /** A BGRA Mat over a direct buffer, as used by the preview */
+    private Mat preview;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = SyntheticFrames.create(resolution);
+        ByteBuffer memory = ByteBuffer.allocateDirect(frame.cols() * frame.rows() * 4);
+        preview = new Mat(frame.rows(), frame.cols(), CvType.CV_8UC4, memory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        preview.release();
+    }
+
+    /** BGR to BGRA conversion straight into the preview memory */
+    @Benchmark
+    public Mat copyToPreview() {
+        CameraController.copyToPreview(frame, preview);
+        return preview;
+    }
+}
@@ -0,0 +1,32 @@
+package com.codedotorg;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Creates random BGR frames so the benchmarks run without a camera.
+ */
+final class SyntheticFrames {
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * Loads OpenCV and creates a frame filled with random pixel values.
+     *
+     * @param resolution the frame size written as WIDTHxHEIGHT, e.g. 640x480
+     * @return a CV_8UC3 frame of the given size
+     */
+    static Mat create(String resolution) {
+        nu.pattern.OpenCV.loadLocally();
+
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+
+        Mat frame = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+        return frame;
+    }
+}
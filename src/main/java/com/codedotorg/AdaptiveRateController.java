@@ -0,0 +1,172 @@
+package com.codedotorg;
+
+/**
+ * Matches the capture and inference rates to what the machine can afford.
+ * The controller keeps a moving average of how long the model takes per frame and
+ * limits the inference rate so the model runs for at most the configured share of
+ * the time, and never faster than the target frame rate. Capture is paced to the
+ * target frame rate, so frames nobody will use are not read in the first place.
+ * The target frame rate and CPU share can be changed at runtime from any thread.
+ */
+public class AdaptiveRateController {
+
+    /** The weight of the newest inference time in the moving average */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /** The highest frame rate the capture and inference stages should run at */
+    private volatile double targetFps;
+
+    /** The largest share of the time, greater than 0 and at most 1, the inference thread may spend running the model */
+    private volatile double maxCpuShare;
+
+    /** The moving average of the time the model takes per frame in nanoseconds, or 0 before the first frame */
+    private volatile double inferenceNanos;
+
+    /** Paces the capture loop to the target frame rate */
+    private final FramePacer capturePacer;
+
+    /** Paces the inference loop to the affordable frame rate */
+    private final FramePacer inferencePacer;
+
+    /**
+     * Constructs an AdaptiveRateController.
+     *
+     * @param targetFps the highest frame rate to capture and classify at
+     * @param maxCpuShare the largest share of the time, greater than 0 and at most 1, the model may run
+     * @throws IllegalArgumentException if maxCpuShare is not greater than 0 and at most 1
+     */
+    public AdaptiveRateController(double targetFps, double maxCpuShare) {
+        this.targetFps = targetFps;
+        this.maxCpuShare = checkCpuShare(maxCpuShare);
+
+        capturePacer = new FramePacer(targetFps, false);
+        inferencePacer = new FramePacer(targetFps, false);
+    }
+
+    /**
+     * Returns the highest frame rate the capture and inference stages run at.
+     *
+     * @return the target frame rate
+     */
+    public double getTargetFps() {
+        return targetFps;
+    }
+
+    /**
+     * Changes the highest frame rate the capture and inference stages run at.
+     *
+     * @param targetFps the target frame rate; 0 or less removes the limit
+     */
+    public void setTargetFps(double targetFps) {
+        this.targetFps = targetFps;
+        capturePacer.setFps(targetFps);
+        updateInferenceRate();
+    }
+
+    /**
+     * Returns the largest share of the time the model may run.
+     *
+     * @return the CPU share, greater than 0 and at most 1
+     */
+    public double getMaxCpuShare() {
+        return maxCpuShare;
+    }
+
+    /**
+     * Changes the largest share of the time the model may run.
+     *
+     * @param maxCpuShare the CPU share, greater than 0 and at most 1; 1 lets the model run back to back
+     * @throws IllegalArgumentException if maxCpuShare is not greater than 0 and at most 1
+     */
+    public void setMaxCpuShare(double maxCpuShare) {
+        this.maxCpuShare = checkCpuShare(maxCpuShare);
+        updateInferenceRate();
+    }
+
+    /**
+     * Checks that a CPU share is usable. A share of 0 or less would compute an affordable
+     * rate of 0 or less, which the pacers treat as no limit at all.
+     *
+     * @param maxCpuShare the CPU share to check
+     * @return the CPU share
+     * @throws IllegalArgumentException if maxCpuShare is not greater than 0 and at most 1
+     */
+    private static double checkCpuShare(double maxCpuShare) {
+        if (!(maxCpuShare > 0 && maxCpuShare <= 1)) {
+            throw new IllegalArgumentException("maxCpuShare must be greater than 0 and at most 1");
+        }
+
+        return maxCpuShare;
+    }
+
+    /**
+     * Returns the moving average of the time the model takes per frame.
+     *
+     * @return the inference latency in milliseconds, or 0 before the first frame
+     */
+    public double getInferenceLatencyMillis() {
+        return inferenceNanos / 1e6;
+    }
+
+    /**
+     * Returns the rate the inference stage currently runs at.
+     * It is the target frame rate, lowered if running the model that often would use more than the CPU share.
+     *
+     * @return the inference frame rate, or 0 if it is not limited
+     */
+    public double getInferenceFps() {
+        double target = targetFps;
+        double latency = inferenceNanos;
+        double share = maxCpuShare;
+
+        // The rate at which the model would run for exactly the allowed share of the time
+        double affordable = latency == 0 || share >= 1 ? 0 : share * 1e9 / latency;
+
+        if (target <= 0) {
+            return affordable;
+        }
+
+        return affordable == 0 ? target : Math.min(target, affordable);
+    }
+
+    /**
+     * Records how long the model took for one frame and adjusts the inference rate.
+     * Called by the inference thread only.
+     *
+     * @param nanos the time the model took in nanoseconds
+     */
+    public void recordInference(long nanos) {
+        double smoothed = inferenceNanos;
+        inferenceNanos = smoothed == 0 ? nanos : smoothed + LATENCY_SMOOTHING * (nanos - smoothed);
+        updateInferenceRate();
+    }
+
+    /**
+     * Waits until the capture loop may read the next frame.
+     * Called by the capture thread only.
+     */
+    public void awaitNextCapture() {
+        capturePacer.awaitNextFrame();
+    }
+
+    /**
+     * Waits until the inference loop may classify the next frame.
+     * Called by the inference thread only.
+     */
+    public void awaitNextInference() {
+        inferencePacer.awaitNextFrame();
+    }
+
+    /**
+     * Sets the inference pacer to the currently affordable frame rate.
+     */
+    private void updateInferenceRate() {
+        inferencePacer.setFps(getInferenceFps());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rate: target=%.1ffps cpu=%.0f%% inference=%.1fms -> %.1ffps",
+            targetFps, maxCpuShare * 100, getInferenceLatencyMillis(), getInferenceFps());
+    }
+}
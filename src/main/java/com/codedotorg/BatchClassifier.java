@@ -0,0 +1,388 @@
+package com.codedotorg;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Classifies every image below a directory without starting the JavaFX app,
+ * for example to re-label captured stills with the current model.
+ * The images are split into batches that run on a fork-join pool: each task decodes
+ * its images and classifies them with one predictBatch() call, which preprocesses the
+ * frames exactly as the live camera path does. Several batches are in flight at once,
+ * so decoding, preprocessing and inference all use every core, while the results are
+ * still written in file name order as each batch finishes.
+ *
+ * Run with: BatchClassifier [options] <image directory>
+ * Options: --output FILE (default: standard output), --format csv|jsonl
+ * (default: from the output file's extension, otherwise csv), --batch N,
+ * --threads N and --model DIRECTORY.
+ */
+public class BatchClassifier {
+
+    /** The default number of images classified with one session run */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    /** The model that classifies the images */
+    private final ModelManager model;
+
+    /** The largest number of images classified with one session run */
+    private final int batchSize;
+
+    /** The number of batches decoded and classified at the same time */
+    private final int parallelism;
+
+    /** Whether the results are written as JSON Lines instead of CSV */
+    private final boolean jsonLines;
+
+    /** The number of images that could not be decoded or classified */
+    private int failures;
+
+    /** The result of one batch: the predictions of the images that were decoded, in file order */
+    private static final class BatchResult {
+        private final List<Path> images;
+        private final List<Prediction> predictions;
+        private final int failures;
+
+        private BatchResult(List<Path> images, List<Prediction> predictions, int failures) {
+            this.images = images;
+            this.predictions = predictions;
+            this.failures = failures;
+        }
+    }
+
+    /**
+     * Constructs a BatchClassifier.
+     *
+     * @param model the model that classifies the images
+     * @param batchSize the largest number of images classified with one session run
+     * @param parallelism the number of batches decoded and classified at the same time
+     * @param jsonLines whether to write JSON Lines instead of CSV
+     */
+    public BatchClassifier(ModelManager model, int batchSize, int parallelism, boolean jsonLines) {
+        this.model = model;
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.jsonLines = jsonLines;
+    }
+
+    /**
+     * Classifies every PNG, JPEG and BMP image below a directory and writes one result per image.
+     * Prints an error message to the console for every image that cannot be decoded.
+     *
+     * @param directory the directory to search for images, including its subdirectories
+     * @param output receives the results in file name order
+     * @return the number of images classified
+     * @throws IOException if the directory cannot be listed or the results cannot be written
+     */
+    public int classify(Path directory, Writer output) throws IOException {
+        List<Path> images;
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            images = files.filter(Files::isRegularFile).filter(ImageDirectorySource::isImage)
+                .sorted().collect(Collectors.toList());
+        }
+
+        writeHeader(output);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<CompletableFuture<BatchResult>> inFlight = new ArrayDeque<>();
+        int classified = 0;
+        failures = 0;
+
+        try {
+            for (int start = 0; start < images.size(); start += batchSize) {
+                List<Path> batch = images.subList(start, Math.min(start + batchSize, images.size()));
+                inFlight.add(CompletableFuture.supplyAsync(() -> classifyBatch(batch), pool));
+
+                // Keep a couple of batches per thread queued so the pool never idles, without decoding everything at once
+                if (inFlight.size() >= parallelism * 2) {
+                    classified += writeResults(directory, inFlight.poll().join(), output);
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                classified += writeResults(directory, inFlight.poll().join(), output);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        output.flush();
+        return classified;
+    }
+
+    /**
+     * Returns the number of images the last classify() call could not decode or classify.
+     *
+     * @return the failed image count
+     */
+    public int getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * Decodes the images of one batch and classifies them with one session run.
+     * Runs on a thread of the fork-join pool.
+     *
+     * @param batch the image files of the batch
+     * @return the decoded images and their predictions
+     */
+    private BatchResult classifyBatch(List<Path> batch) {
+        List<Path> decoded = new ArrayList<>(batch.size());
+        List<Mat> frames = new ArrayList<>(batch.size());
+        int failed = 0;
+
+        try {
+            // Decode the images as BGR, the same format the camera delivers
+            for (Path image : batch) {
+                Mat frame = Imgcodecs.imread(image.toString(), Imgcodecs.IMREAD_COLOR);
+
+                if (frame.empty()) {
+                    System.err.println("Failed to decode " + image);
+                    frame.release();
+                    failed++;
+                    continue;
+                }
+
+                decoded.add(image);
+                frames.add(frame);
+            }
+
+            List<Prediction> predictions = model.predictBatch(frames);
+
+            if (predictions == null) {
+                System.err.println("Failed to classify a batch starting with " + batch.get(0));
+                return new BatchResult(decoded, null, batch.size());
+            }
+
+            return new BatchResult(decoded, predictions, failed);
+        } catch (RuntimeException e) {
+            // A corrupt image can make OpenCV throw; count the batch as failed so the rest of the run goes on
+            System.err.println("Failed to classify a batch starting with " + batch.get(0));
+            e.printStackTrace();
+            return new BatchResult(decoded, null, batch.size());
+        } finally {
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Writes the header line of the CSV output, naming one score column per class.
+     *
+     * @param output the output to write to
+     * @throws IOException if the header cannot be written
+     */
+    private void writeHeader(Writer output) throws IOException {
+        LabelTable labels = model.getLabelTable();
+
+        if (jsonLines || labels == null) {
+            return;
+        }
+
+        output.write("path,label,class_index,score");
+
+        for (int i = 0; i < labels.size(); i++) {
+            output.write(',');
+            output.write(csv("score_" + labels.getName(i)));
+        }
+
+        output.write('\n');
+    }
+
+    /**
+     * Writes one line per classified image of a batch.
+     *
+     * @param directory the searched directory, which the written paths are relative to
+     * @param result the result of the batch
+     * @param output the output to write to
+     * @return the number of images written
+     * @throws IOException if the results cannot be written
+     */
+    private int writeResults(Path directory, BatchResult result, Writer output) throws IOException {
+        failures += result.failures;
+
+        if (result.predictions == null) {
+            return 0;
+        }
+
+        StringBuilder line = new StringBuilder();
+
+        for (int i = 0; i < result.predictions.size(); i++) {
+            Prediction prediction = result.predictions.get(i);
+            String path = directory.relativize(result.images.get(i)).toString();
+            line.setLength(0);
+
+            if (jsonLines) {
+                line.append("{\"path\":").append(json(path))
+                    .append(",\"label\":").append(json(prediction.getLabel()))
+                    .append(",\"classIndex\":").append(prediction.getClassIndex())
+                    .append(",\"score\":").append(prediction.getScore())
+                    .append(",\"scores\":[");
+
+                for (int c = 0; c < prediction.getClassCount(); c++) {
+                    line.append(c == 0 ? "" : ",").append(prediction.getScore(c));
+                }
+
+                line.append("]}");
+            }
+            else {
+                line.append(csv(path)).append(',').append(csv(prediction.getLabel()))
+                    .append(',').append(prediction.getClassIndex())
+                    .append(',').append(prediction.getScore());
+
+                for (int c = 0; c < prediction.getClassCount(); c++) {
+                    line.append(',').append(prediction.getScore(c));
+                }
+            }
+
+            output.append(line).append('\n');
+        }
+
+        // Let a reader following the output see each batch as soon as it is done
+        output.flush();
+        return result.predictions.size();
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, quote or line break.
+     *
+     * @param value the field
+     * @return the field as it should appear in the CSV
+     */
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Formats a string as a JSON string literal.
+     *
+     * @param value the string
+     * @return the quoted and escaped string
+     */
+    private static String json(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Classifies a directory of images from the command line and prints a summary to the console.
+     *
+     * @param args the options and the image directory
+     * @throws IOException if the images cannot be listed or the results cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = null;
+        Path outputFile = null;
+        String format = null;
+        String modelDirectory = null;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+
+            if (arg.equals("--output") && hasValue) {
+                outputFile = Paths.get(args[++i]);
+            }
+            else if (arg.equals("--format") && hasValue) {
+                format = args[++i];
+            }
+            else if (arg.equals("--batch") && hasValue) {
+                batchSize = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--threads") && hasValue) {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("--model") && hasValue) {
+                modelDirectory = args[++i];
+            }
+            else if (!arg.startsWith("--") && directory == null) {
+                directory = Paths.get(arg);
+            }
+            else {
+                directory = null;
+                break;
+            }
+        }
+
+        if (directory == null || (format != null && !format.equals("csv") && !format.equals("jsonl"))) {
+            System.err.println("Usage: BatchClassifier [--output FILE] [--format csv|jsonl] [--batch N]"
+                + " [--threads N] [--model DIRECTORY] <image directory>");
+            return;
+        }
+
+        // Pick the format from the output file name unless it was given
+        if (format == null) {
+            format = outputFile != null && outputFile.toString().endsWith(".jsonl") ? "jsonl" : "csv";
+        }
+
+        ModelManager model = (modelDirectory == null ? ModelManager.loadAsync() : ModelManager.loadAsync(modelDirectory)).join();
+
+        if (!model.isModelLoaded()) {
+            return;
+        }
+
+        BatchClassifier classifier = new BatchClassifier(model, batchSize, threads, format.equals("jsonl"));
+        long start = System.nanoTime();
+
+        Writer output = outputFile == null
+            ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+            : Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8);
+
+        int classified;
+
+        try {
+            classified = classifier.classify(directory, output);
+        } finally {
+            // Leave standard output open for the summary
+            if (outputFile != null) {
+                output.close();
+            }
+
+            model.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Classified %d images (%d failed) in %.1f s, %.1f images/s%n",
+            classified, classifier.getFailureCount(), seconds, classified / seconds);
+    }
+}
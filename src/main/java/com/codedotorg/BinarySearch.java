@@ -1,7 +1,7 @@
 package com.codedotorg;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.CompletableFuture;
+
 import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -9,10 +9,20 @@ import javafx.scene.control.Label;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 public class BinarySearch {
 
+    /** What a gesture tells the search, as an index into the tables below */
+    private static final int HIGHER = 0;
+    private static final int LOWER = 1;
+    private static final int STOP = 2;
+
+    /** The class names of the actions, in action order */
+    private static final String[] ACTION_NAMES = {"thumbsup", "thumbsdown", "stop"};
+
+    /** The actions in the same order as ACTION_NAMES */
+    private static final int[] ACTIONS = {HIGHER, LOWER, STOP};
+
     /** The main window of the app */
     private Stage window;
 
@@ -27,26 +37,42 @@ public class BinarySearch {
     private int right = 100;
     private int guess = (left + right) / 2;
 
+    /** The labels the action table was built from */
+    private LabelTable labelTable;
+
+    /** The action of each class of the model, or -1 for classes that are not an action */
+    private int[] actionOfClass = new int[0];
+
+    /** Turns the per-frame predictions into one decision per gesture */
+    private PredictionSmoother smoother;
+
     /** Button to exit the app */
     private Button exitButton;
 
     /** Manages the TensorFlow model used for image classification */
     private ModelManager model;
 
+    /** Completes when the model has been loaded and warmed up in the background */
+    private CompletableFuture<ModelManager> modelReady;
+
     /** Controls the camera capture and provides frames to the TensorFlow model for classification */
     private CameraController cameraController;
 
     /**
      * Constructor for the ModelDemo class.
-     * Initializes the camera controller, model manager, image view, prediction label, and exit button.
+     * Initializes the camera controller, image view, prediction label, and exit button,
+     * and starts loading the model manager in the background.
      */
     public BinarySearch() {
         cameraController = new CameraController();
-        model = new ModelManager();
+        modelReady = ModelManager.loadAsync();
         cameraView = new ImageView();
         predictionLabel = getPredictionLabel();
         exitButton = new Button("Exit");
         promptLabel = new Label("Think of a number between 1 and 100:");
+
+        // Handle each decision on the JavaFX thread
+        smoother = new PredictionSmoother(decision -> Platform.runLater(() -> handleDecision(decision)));
     }
     
     /**
@@ -93,25 +119,31 @@ public class BinarySearch {
         window.setScene(mainScene);
         window.show();
 
-        // Start capturing the webcam
-        cameraController.captureCamera(cameraView, model);
+        // Start capturing the webcam once the model has loaded in the background
+        modelReady.thenAccept(loaded -> Platform.runLater(() -> {
+            model = loaded;
 
-        // Update the prediction label
-        updatePredictionLabel();
+            // Turn frames where the model is unsure into unknown predictions, which the search skips
+            model.setPredictionFilter(new PredictionFilter());
+            cameraController.captureCamera(cameraView, model);
+        }));
+
+        // Act on the gesture as soon as the smoothed predictions settle on it
+        cameraController.addPredictionListener(smoother);
     }
 
-    public int binarySearch(String predictedClass) {
-        if (predictedClass.equals("0 thumbsup")) {
+    public int binarySearch(int action) {
+        if (action == HIGHER) {
             left = guess;
             guess = (left + right) / 2;
             return guess;
         }
-        else if (predictedClass.equals("1 thumbsdown")) {
+        else if (action == LOWER) {
             right = guess;
             guess = (left + right) / 2;
             return guess;
         }
-        else if (predictedClass.equals("stop")) {
+        else if (action == STOP) {
             return guess;
         }
         else {
@@ -145,29 +177,42 @@ public class BinarySearch {
     }
 
     /**
-     * Updates the prediction label with the predicted class and score from the camera controller.
-     * Uses a timeline to update the label every second.
+     * Moves the binary search with the gesture the user settled on and shows the new guess.
+     * Runs on the JavaFX thread.
+     *
+     * @param decision the smoothed prediction of the user's gesture
+     */
+    private void handleDecision(Prediction decision) {
+        // Do not move the search on a frame the model was unsure about
+        if (decision.isUnknown()) {
+            return;
+        }
+
+        String predictedClass = decision.getLabel();
+        double predictedScore = decision.getScore();
+
+        // Get the guess from the binary search
+        int guess = binarySearch(getAction(decision.getClassIndex()));
+
+        predictionLabel.setText("Guess: " + guess + " - " + predictedClass + " - " + predictedScore);
+    }
+
+    /**
+     * Looks up the action a class of the model stands for.
+     * The table is built from the class names once, and again only if a reload changes the labels.
+     *
+     * @param classIndex the index of the predicted class, or Prediction.UNKNOWN
+     * @return the action, or -1 if the class is unknown or not an action
      */
-    private void updatePredictionLabel() {
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(3), event -> {
-            // Get the predicted class and score from the CameraController
-            String predictedClass = cameraController.getPredictedClass();
-            double predictedScore = cameraController.getPredictedScore();
-
-            // Update the prediction label with the guess, predicted class, and score
-            if (predictedClass != null) {
-                // Get the guess from the binary search
-                int guess = binarySearch(predictedClass);
-
-                Platform.runLater(() -> predictionLabel.setText("Guess: " + guess + " - " + predictedClass + " - " + predictedScore));
-            }
-        }));
-        
-        // Specify that the animation should repeat indefinitely
-        timeline.setCycleCount(Timeline.INDEFINITE);
+    private int getAction(int classIndex) {
+        LabelTable labels = model.getLabelTable();
+
+        if (labels != labelTable) {
+            labelTable = labels;
+            actionOfClass = labels == null ? new int[0] : labels.mapNames(ACTION_NAMES, ACTIONS, -1);
+        }
 
-        // Start the animation
-        timeline.play();
+        return classIndex >= 0 && classIndex < actionOfClass.length ? actionOfClass[classIndex] : -1;
     }
 
 }
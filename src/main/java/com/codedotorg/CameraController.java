@@ -1,76 +1,217 @@
 package com.codedotorg;
 
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import org.opencv.core.*;
-import org.opencv.videoio.VideoCapture;
+import org.opencv.imgproc.Imgproc;
 
 import javafx.application.Platform;
-import javafx.scene.image.Image;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.image.ImageView;
-
-import org.opencv.imgcodecs.Imgcodecs;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Callback;
 
 public class CameraController {
 
-    /** The predicted class from the model */
-    private String predictedClass;
+    /** The most recent prediction with its frame number and timestamps, or null before the first one */
+    private final AtomicReference<PredictionSnapshot> snapshot = new AtomicReference<>();
+
+    /** Receive every new prediction on the inference thread */
+    private final List<Consumer<Prediction>> predictionListeners = new CopyOnWriteArrayList<>();
 
-    /** The confidence score of the model */
-    private float predictedScore;
+    /** Publishes every new prediction to asynchronous subscribers; never blocks the inference thread */
+    private final SubmissionPublisher<Prediction> predictionPublisher = new SubmissionPublisher<>();
+
+    /** Counts the predictions published and the predictions dropped because a subscriber's buffer was full */
+    private final StageCounters publishCounters = new StageCounters("publish");
 
     /** Whether or not the camera capture is running */
     private static volatile boolean running = true;
 
+    /** Numbers the metrics of each CameraController so their JMX names do not clash */
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    /** How long the inference stage waits for a frame before checking whether to stop */
+    private static final long STAGE_POLL_MILLIS = 100;
+
+    /** Whether this controller's capture loop is still producing frames */
+    private volatile boolean capturing;
+
+    /** Counts the frames read from the camera */
+    private final StageCounters captureCounters = new StageCounters("capture");
+
+    /** Counts the frames classified by the model and the frames skipped because a newer one arrived */
+    private final StageCounters inferenceCounters = new StageCounters("inference");
+
+    /** Counts the frames the motion detector passed to the model and the still frames it skipped */
+    private final StageCounters motionCounters = new StageCounters("motion");
+
+    /** Skips inference on still frames and slows capture while idle, or null to classify every frame */
+    private volatile MotionDetector motionDetector;
+
+    /** Paces capture and inference to the machine's budget, or null to run as fast as frames arrive */
+    private volatile AdaptiveRateController rateController;
+
+    /** Records every classified frame with its prediction, or null to record nothing */
+    private volatile FrameRecorder recorder;
+
+    /** Counts the frames shown in the preview and the frames skipped because a newer one arrived */
+    private final StageCounters renderCounters = new StageCounters("render");
+
+    /** The capture, UI publish and end-to-end latency, frame rate and dropped frames of this camera */
+    private final PipelineMetrics metrics = new PipelineMetrics("camera-" + INSTANCE_COUNT.incrementAndGet());
+
+    /** Passes the newest camera frame to the inference stage */
+    private final FrameHandoff inferenceHandoff = new FrameHandoff(inferenceCounters);
+
+    /** Passes the newest camera frame to the render stage */
+    private final FrameHandoff renderHandoff = new FrameHandoff(renderCounters);
+
+    /** Whether a preview update is already scheduled on the JavaFX thread */
+    private final AtomicBoolean renderScheduled = new AtomicBoolean();
+
+    /** The ImageView showing the preview */
+    private ImageView previewView;
+
+    /** Shares its direct memory between the preview image and previewMat; only used on the JavaFX thread */
+    private PixelBuffer<ByteBuffer> previewBuffer;
+
+    /** A BGRA Mat backed by the same memory as previewBuffer; only used on the JavaFX thread */
+    private Mat previewMat;
+
+    /** The frame being copied into the preview; only used on the JavaFX thread */
+    private CapturedFrame renderFrame;
+
+    /** Copies the newest frame into the preview, created once so scheduling it does not allocate */
+    private final Runnable renderTask = this::renderLatest;
+
+    /** Converts renderFrame into the preview memory and reports the whole image as changed */
+    private final Callback<PixelBuffer<ByteBuffer>, Rectangle2D> previewUpdate = buffer -> {
+        copyToPreview(renderFrame.getMat(), previewMat);
+        return null;
+    };
+
     /**
      * Constructor for CameraController class.
-     * Loads OpenCV locally and initializes predictedClass and predictedScore to null and 0 respectively.
+     * Starts loading OpenCV in the background; there is no prediction until the first frame is classified.
      */
     public CameraController() {
-        // Load the OpenCV library locally
-        nu.pattern.OpenCV.loadLocally();
+        // Start loading the OpenCV library locally; the capture thread waits for it
+        OpenCvLoader.load();
 
-        predictedClass = null;
-        predictedScore = 0;
+        // Report the frames dropped by the inference and render stages, and expose the metrics over JMX
+        metrics.trackStage(inferenceCounters);
+        metrics.trackStage(renderCounters);
+        metrics.registerMBean();
     }
 
     /**
-     * Captures camera frames and displays them in an ImageView while running.
+     * Captures frames from the system default camera and displays them in an ImageView while running.
      * 
      * @param imageView the ImageView to display the captured frames
      * @param model the ModelManager to use for predicting the class and score of the captured frames
      */
     public void captureCamera(ImageView imageView, ModelManager model) {
+        captureCamera(imageView, model, new WebcamSource(0));
+    }
+
+    /**
+     * Captures frames from a source and displays them in an ImageView while running.
+     * Capture, inference and rendering each run on their own thread and pass frames
+     * through handoffs that keep only the newest frame, so the preview keeps the
+     * source's frame rate while the model always works on the most recent frame.
+     * 
+     * @param imageView the ImageView to display the captured frames, or null to run without a preview
+     * @param model the ModelManager to use for predicting the class and score of the captured frames
+     * @param source the camera, file or generator to read frames from
+     */
+    public void captureCamera(ImageView imageView, ModelManager model, FrameSource source) {
         // Create a new thread to run the camera capture
         // Ensures that the camera capture runs in a separate thread from the main thread
         // of the app to prevent the camera capture from blocking the main thread and
         // causing the app to become unresponsive
         new Thread(() -> {
-            // Create a VideoCapture with the system default camera (0)
-            VideoCapture camera = new VideoCapture(0);
+            // Make sure the OpenCV library has finished loading before the first frame
+            OpenCvLoader.load().join();
 
-            if (!camera.isOpened()) {
-                System.out.println("Error! Camera can't be opened.");
+            if (!StartupTimeline.time("camera open", source::open)) {
+                System.out.println("Error! " + source.getName() + " can't be opened.");
+                source.close();
                 return;
             }
 
+            // Start the inference stage; the render stage runs on the JavaFX thread
+            capturing = true;
+            previewView = imageView;
+            startStage("inference", () -> runInference(model));
+
             // Create a new frame to host the image from the camera
             Mat frame = new Mat();
+            long sequence = 0;
 
             while (running) {
+                // Wait for the next capture slot if the frame rate is limited
+                AdaptiveRateController rate = rateController;
+
+                if (rate != null) {
+                    rate.awaitNextCapture();
+                }
+
+                long start = System.nanoTime();
+
                 // Capture the frame
-                if (camera.read(frame)) {
-                    // Convert and display the image from the camera
-                    Image img = matToImage(frame);
+                if (source.read(frame)) {
+                    long captured = System.nanoTime();
+                    metrics.recordLatency(PipelineMetrics.Stage.CAPTURE, captured - start);
+                    metrics.recordFrame();
+                    captureCounters.recordProcessed();
+
+                    if (sequence == 0) {
+                        StartupTimeline.mark("first frame");
+                    }
+
+                    // Hand the frame to the inference stage without waiting for it, unless nothing moved
+                    MotionDetector detector = motionDetector;
+
+                    if (detector == null || detector.shouldClassify(frame)) {
+                        inferenceHandoff.publish(frame, sequence, captured);
+                        motionCounters.recordProcessed();
+                    }
+                    else {
+                        motionCounters.recordDropped();
+                    }
+
+                    // Hand the frame to the render stage, scheduling an update unless one is already waiting
+                    if (imageView != null) {
+                        renderHandoff.publish(frame, sequence, captured);
+
+                        if (renderScheduled.compareAndSet(false, true)) {
+                            Platform.runLater(renderTask);
+                        }
+                    }
 
-                    // Update the image displayed in the image view
-                    Platform.runLater(() -> imageView.setImage(img));
+                    sequence++;
 
-                    // Get the predicted class from the model
-                    predictedClass = model.predictClass(frame);
+                    // Drop to the idle frame rate while nothing moves; the next moving frame restores the full rate
+                    if (detector != null && detector.isIdle()) {
+                        long wait = (long) (1e9 / detector.getIdleFps()) - (System.nanoTime() - start);
 
-                    // Get the predicted score from the model
-                    predictedScore = model.predictScore(frame);
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
                 }
                 else {
                     System.out.println("Cannot capture the frame.");
@@ -78,9 +219,355 @@ public class CameraController {
                 }
             }
 
-            // Release the camera after usage
-            camera.release();
-        }).start();
+            // Let the other stages finish, then release the frame and the source after usage
+            // A frame the JavaFX thread is still rendering is released when it hands it back to the closed handoff
+            capturing = false;
+            renderHandoff.close();
+            frame.release();
+            source.close();
+        }, "camera-capture").start();
+    }
+
+    /**
+     * Returns the capture, UI publish and end-to-end latency, frame rate and dropped frames of this camera.
+     * The latency of the model stages is reported by ModelManager.getMetrics().
+     *
+     * @return the camera's pipeline metrics
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the counters of the capture stage.
+     *
+     * @return the number of frames read from the camera
+     */
+    public StageCounters getCaptureCounters() {
+        return captureCounters;
+    }
+
+    /**
+     * Returns the counters of the inference stage.
+     *
+     * @return the number of frames classified and skipped by the model
+     */
+    public StageCounters getInferenceCounters() {
+        return inferenceCounters;
+    }
+
+    /**
+     * Returns the counters of the motion gate.
+     *
+     * @return the number of frames passed to the model and the still frames skipped
+     */
+    public StageCounters getMotionCounters() {
+        return motionCounters;
+    }
+
+    /**
+     * Returns the motion detector that gates inference.
+     *
+     * @return the motion detector, or null if every frame is classified
+     */
+    public MotionDetector getMotionDetector() {
+        return motionDetector;
+    }
+
+    /**
+     * Sets a motion detector that skips inference while the camera sees no motion and
+     * lowers the capture frame rate once the camera has been idle for a while.
+     * Set it before captureCamera() is called, since only the capture thread may use it.
+     *
+     * @param motionDetector the motion detector, or null to classify every frame
+     */
+    public void setMotionDetector(MotionDetector motionDetector) {
+        this.motionDetector = motionDetector;
+    }
+
+    /**
+     * Returns the controller that paces capture and inference.
+     *
+     * @return the rate controller, or null if the stages run as fast as frames arrive
+     */
+    public AdaptiveRateController getRateController() {
+        return rateController;
+    }
+
+    /**
+     * Sets a controller that paces capture to its target frame rate and inference to
+     * the rate the machine can afford. Its target frame rate and CPU share may be
+     * changed at any time; set the controller itself before captureCamera() is called.
+     *
+     * @param rateController the rate controller, or null to run as fast as frames arrive
+     */
+    public void setRateController(AdaptiveRateController rateController) {
+        this.rateController = rateController;
+    }
+
+    /**
+     * Returns the recorder that keeps the classified frames and their predictions.
+     *
+     * @return the frame recorder, or null if nothing is recorded
+     */
+    public FrameRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets a recorder that keeps every classified frame with its prediction for offline replay.
+     * The inference thread only copies the frame into the recorder's queue; the recorder
+     * must be started by the caller and can be set or removed at any time.
+     *
+     * @param recorder the started frame recorder, or null to stop recording
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Returns the counters of the render stage.
+     *
+     * @return the number of frames shown and skipped by the preview
+     */
+    public StageCounters getRenderCounters() {
+        return renderCounters;
+    }
+
+    /**
+     * Starts a daemon thread for one pipeline stage.
+     *
+     * @param name the name of the stage
+     * @param stage the loop the stage runs
+     */
+    private void startStage(String name, Runnable stage) {
+        Thread thread = new Thread(stage, "camera-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Classifies the newest captured frame until the capture loop stops.
+     *
+     * @param model the ModelManager to use for predicting the class and score
+     */
+    private void runInference(ModelManager model) {
+        while (capturing) {
+            // Wait for the next inference slot first, so the frame taken afterwards is the newest one
+            AdaptiveRateController rate = rateController;
+
+            if (rate != null) {
+                rate.awaitNextInference();
+            }
+
+            // Wait for the newest frame; frames that arrived meanwhile have already been dropped
+            CapturedFrame frame = inferenceHandoff.await(STAGE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (frame == null) {
+                continue;
+            }
+
+            // Run the model once to get the predicted class and score together
+            long start = System.nanoTime();
+            Prediction result = model.predict(frame.getMat());
+            long inferenceNanos = System.nanoTime() - start;
+
+            // Budget the CPU share for real session runs only; a cache hit takes microseconds and would lift the limit
+            long runNanos = model.getLastRunNanos();
+
+            if (rate != null && runNanos > 0) {
+                rate.recordInference(runNanos);
+            }
+
+            long sequence = frame.getSequence();
+            long captured = frame.getCaptureNanos();
+
+            // Queue the frame for recording before it is recycled; the recorder never waits for its disk
+            FrameRecorder frameRecorder = recorder;
+
+            if (frameRecorder != null && result != null) {
+                frameRecorder.record(frame.getMat(), sequence, captured, inferenceNanos, result);
+            }
+
+            inferenceHandoff.recycle(frame);
+
+            if (result != null) {
+                // Publish the prediction and its frame's metadata together as one snapshot
+                long published = System.nanoTime();
+                snapshot.set(new PredictionSnapshot(result, sequence, captured, published));
+                metrics.recordLatency(PipelineMetrics.Stage.END_TO_END, published - captured);
+
+                // The app is fully started once the first prediction is out
+                if (inferenceCounters.getProcessed() == 0) {
+                    StartupTimeline.mark("first prediction");
+                    StartupTimeline.printReportOnce();
+                }
+
+                inferenceCounters.recordProcessed();
+
+                // Hand the prediction to the listeners, such as a PredictionSmoother
+                for (Consumer<Prediction> listener : predictionListeners) {
+                    listener.accept(result);
+                }
+
+                // Offer the prediction to the subscribers, dropping it for any subscriber that has fallen behind
+                if (predictionPublisher.offer(result, null) < 0) {
+                    publishCounters.recordDropped();
+                }
+                else {
+                    publishCounters.recordProcessed();
+                }
+            }
+        }
+
+        inferenceHandoff.close();
+
+        // Tell the subscribers that no more predictions will come
+        predictionPublisher.close();
+    }
+
+    /**
+     * Copies the newest captured frame into the preview image.
+     * Runs on the JavaFX thread; the colour conversion writes straight into the
+     * image's pixel memory, so no encoding or new Image is needed per frame.
+     */
+    private void renderLatest() {
+        // Allow the capture thread to schedule the next update
+        renderScheduled.set(false);
+        long start = System.nanoTime();
+
+        // Take the newest frame; frames that arrived meanwhile have already been dropped
+        renderFrame = renderHandoff.poll();
+
+        if (renderFrame == null) {
+            return;
+        }
+
+        // Create a new preview image the first time and whenever the frame size changes
+        Mat pixels = renderFrame.getMat();
+
+        if (previewMat == null || previewMat.cols() != pixels.cols() || previewMat.rows() != pixels.rows()) {
+            createPreview(pixels.cols(), pixels.rows());
+        }
+
+        // Convert the frame into the preview's memory and mark the whole image as changed
+        previewBuffer.updateBuffer(previewUpdate);
+
+        renderHandoff.recycle(renderFrame);
+        renderFrame = null;
+        renderCounters.recordProcessed();
+        metrics.recordLatency(PipelineMetrics.Stage.UI_PUBLISH, System.nanoTime() - start);
+    }
+
+    /**
+     * Creates a preview image of the given size backed by a direct buffer,
+     * and a Mat that writes into the same memory.
+     *
+     * @param width the width of the camera frames
+     * @param height the height of the camera frames
+     */
+    private void createPreview(int width, int height) {
+        if (previewMat != null) {
+            previewMat.release();
+        }
+
+        // Four bytes per pixel in the BGRA order JavaFX uses for its pixel buffers
+        ByteBuffer memory = ByteBuffer.allocateDirect(width * height * 4);
+
+        previewBuffer = new PixelBuffer<>(width, height, memory, PixelFormat.getByteBgraPreInstance());
+        previewMat = new Mat(height, width, CvType.CV_8UC4, memory);
+
+        // Update the image displayed in the image view
+        previewView.setImage(new WritableImage(previewBuffer));
+    }
+
+    /**
+     * Converts a camera frame to the opaque BGRA layout of the preview in native code.
+     *
+     * @param frame the BGR (or grayscale) camera frame
+     * @param preview the BGRA Mat the preview image reads from
+     */
+    static void copyToPreview(Mat frame, Mat preview) {
+        if (frame.channels() == 1) {
+            Imgproc.cvtColor(frame, preview, Imgproc.COLOR_GRAY2BGRA);
+        }
+        else {
+            Imgproc.cvtColor(frame, preview, Imgproc.COLOR_BGR2BGRA);
+        }
+    }
+
+    /**
+     * Returns the most recent prediction from the model
+     *
+     * @return the most recent prediction, or null if no frame has been classified yet
+     */
+    public Prediction getPrediction() {
+        PredictionSnapshot current = snapshot.get();
+        return current == null ? null : current.getPrediction();
+    }
+
+    /**
+     * Returns the most recent prediction together with its frame number and timestamps.
+     * The snapshot is immutable, so its values always belong to the same frame.
+     *
+     * @return the most recent snapshot, or null if no frame has been classified yet
+     */
+    public PredictionSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Checks whether a frame captured after the given one has been classified.
+     * Lets a reader skip work cheaply when nothing changed since its last snapshot.
+     *
+     * @param sequence the sequence number of the last snapshot the reader saw, or -1 for none
+     * @return true if a newer prediction is available
+     */
+    public boolean hasNewerThan(long sequence) {
+        PredictionSnapshot current = snapshot.get();
+        return current != null && current.getSequence() > sequence;
+    }
+
+    /**
+     * Returns a publisher of every new prediction.
+     * Subscribers are called on their own executor threads, each with a bounded buffer.
+     * The inference thread never waits for a subscriber: a prediction is dropped for
+     * any subscriber whose buffer is full. Use an FxCoalescingSubscriber to show the
+     * latest prediction on the JavaFX thread.
+     *
+     * @return the publisher of predictions, completed when the capture stops
+     */
+    public Flow.Publisher<Prediction> getPredictionPublisher() {
+        return predictionPublisher;
+    }
+
+    /**
+     * Returns the counters of the prediction publisher.
+     *
+     * @return the number of predictions published and the predictions a slow subscriber missed
+     */
+    public StageCounters getPublishCounters() {
+        return publishCounters;
+    }
+
+    /**
+     * Adds a listener that receives every new prediction as soon as the model makes it.
+     * Listeners are called on the inference thread and should return quickly;
+     * JavaFX apps should hand any UI work to Platform.runLater().
+     *
+     * @param listener receives every new prediction
+     */
+    public void addPredictionListener(Consumer<Prediction> listener) {
+        predictionListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addPredictionListener().
+     *
+     * @param listener the listener to remove
+     */
+    public void removePredictionListener(Consumer<Prediction> listener) {
+        predictionListeners.remove(listener);
     }
 
     /**
@@ -89,7 +576,18 @@ public class CameraController {
      * @return the predicted class from the model
      */
     public String getPredictedClass() {
-        return predictedClass;
+        Prediction current = getPrediction();
+        return current == null ? null : current.getLabel();
+    }
+
+    /**
+     * Returns the index of the predicted class, which can be compared without parsing the label.
+     *
+     * @return the index of the predicted class, or -1 before the first prediction or if the model was unsure
+     */
+    public int getPredictedClassIndex() {
+        Prediction current = getPrediction();
+        return current == null ? -1 : current.getClassIndex();
     }
 
     /**
@@ -98,30 +596,16 @@ public class CameraController {
      * @return the predicted confidence score from the model
      */
     public float getPredictedScore() {
-        return predictedScore;
+        Prediction current = getPrediction();
+        return current == null ? 0 : current.getScore();
     }
 
     /**
-     * Stops the camera capture.
+     * Stops the camera capture and removes the metrics from the platform MBean server,
+     * so they are not kept alive after the controller is gone.
      */
     public void stopCapture() {
         running = false;
-    }
-
-    /**
-     * Converts a given OpenCV Mat object to a JavaFX Image object.
-     * 
-     * @param frame The OpenCV Mat object to be converted.
-     * @return The JavaFX Image object created from the image encoded in the buffer.
-     */
-    private Image matToImage(Mat frame) {
-        // Create a temporary buffer to store the encoded image data
-        MatOfByte buffer = new MatOfByte();
-
-        // Encode the frame in the buffer, according to the PNG format
-        Imgcodecs.imencode(".png", frame, buffer);
-
-        // Build and return an Image created from the image encoded in the buffer
-        return new Image(new ByteArrayInputStream(buffer.toArray()));
+        metrics.unregisterMBean();
     }
 }
@@ -0,0 +1,148 @@
+package com.codedotorg;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One camera of a MultiCameraController: its source, its newest frame waiting for
+ * the model, its latest prediction and its own metrics and counters.
+ */
+public final class CameraFeed {
+
+    /** The position of the camera in its controller */
+    private final int index;
+
+    /** The camera, file or generator the frames are read from */
+    private final FrameSource source;
+
+    /** Counts the frames read from the source */
+    private final StageCounters captureCounters;
+
+    /** Counts the frames classified and the frames skipped because a newer one arrived */
+    private final StageCounters inferenceCounters;
+
+    /** The capture and end-to-end latency, frame rate and dropped frames of this camera */
+    private final PipelineMetrics metrics;
+
+    /** Passes the newest frame of this camera to the scheduler */
+    private final FrameHandoff handoff;
+
+    /** The most recent prediction of this camera, or null before the first one */
+    private final AtomicReference<PredictionSnapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * Constructs a CameraFeed.
+     *
+     * @param index the position of the camera in its controller
+     * @param source the camera, file or generator to read frames from
+     * @param metricsName the name of the camera's metrics
+     */
+    CameraFeed(int index, FrameSource source, String metricsName) {
+        this.index = index;
+        this.source = source;
+
+        captureCounters = new StageCounters("capture");
+        inferenceCounters = new StageCounters("inference");
+        metrics = new PipelineMetrics(metricsName);
+        handoff = new FrameHandoff(inferenceCounters);
+
+        metrics.trackStage(inferenceCounters);
+    }
+
+    /**
+     * Returns the position of the camera in its controller.
+     *
+     * @return the index the camera was added at
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the name of the camera's source.
+     *
+     * @return the source name
+     */
+    public String getName() {
+        return source.getName();
+    }
+
+    /**
+     * Returns the capture and end-to-end latency, frame rate and dropped frames of this camera.
+     *
+     * @return the camera's pipeline metrics
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the counters of the capture stage.
+     *
+     * @return the number of frames read from the source
+     */
+    public StageCounters getCaptureCounters() {
+        return captureCounters;
+    }
+
+    /**
+     * Returns the counters of the inference stage.
+     *
+     * @return the number of frames classified and skipped for this camera
+     */
+    public StageCounters getInferenceCounters() {
+        return inferenceCounters;
+    }
+
+    /**
+     * Returns the most recent prediction of this camera together with its frame number and timestamps.
+     *
+     * @return the most recent snapshot, or null if no frame has been classified yet
+     */
+    public PredictionSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Returns the most recent prediction of this camera.
+     *
+     * @return the most recent prediction, or null if no frame has been classified yet
+     */
+    public Prediction getPrediction() {
+        PredictionSnapshot current = snapshot.get();
+        return current == null ? null : current.getPrediction();
+    }
+
+    /**
+     * Returns the source of this camera.
+     *
+     * @return the camera, file or generator the frames are read from
+     */
+    FrameSource getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the handoff that passes this camera's newest frame to the scheduler.
+     *
+     * @return the camera's handoff
+     */
+    FrameHandoff getHandoff() {
+        return handoff;
+    }
+
+    /**
+     * Publishes a new prediction for this camera and records its end-to-end latency.
+     *
+     * @param current the snapshot of the new prediction
+     */
+    void publish(PredictionSnapshot current) {
+        snapshot.set(current);
+        inferenceCounters.recordProcessed();
+        metrics.recordLatency(PipelineMetrics.Stage.END_TO_END, current.getLatencyNanos());
+    }
+
+    @Override
+    public String toString() {
+        return metrics.toString();
+    }
+}
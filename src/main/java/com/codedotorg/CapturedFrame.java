@@ -0,0 +1,67 @@
+package com.codedotorg;
+
+import org.opencv.core.Mat;
+
+/**
+ * A copy of one camera frame together with its sequence number and capture time.
+ * The Mat is reused for later frames, so a CapturedFrame is only valid until it is
+ * handed back to the FrameHandoff it came from.
+ */
+final class CapturedFrame {
+
+    /** The copied pixels of the frame */
+    private final Mat mat = new Mat();
+
+    /** The number of the frame, counted from 0 by the capture loop */
+    private long sequence;
+
+    /** The System.nanoTime() at which the frame was read */
+    private long captureNanos;
+
+    /**
+     * Copies a frame and its metadata into this CapturedFrame, reusing its memory when the size matches.
+     *
+     * @param frame the frame to copy
+     * @param sequence the number of the frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     */
+    void set(Mat frame, long sequence, long captureNanos) {
+        frame.copyTo(mat);
+        this.sequence = sequence;
+        this.captureNanos = captureNanos;
+    }
+
+    /**
+     * Returns the copied pixels of the frame.
+     *
+     * @return the frame's Mat, owned by this CapturedFrame
+     */
+    Mat getMat() {
+        return mat;
+    }
+
+    /**
+     * Returns the number of the frame.
+     *
+     * @return the sequence number counted from 0 by the capture loop
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time the frame was read.
+     *
+     * @return the System.nanoTime() at which the frame was read
+     */
+    long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Frees the native memory of the frame.
+     */
+    void release() {
+        mat.release();
+    }
+}
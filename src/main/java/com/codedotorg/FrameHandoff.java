@@ -0,0 +1,190 @@
+package com.codedotorg;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opencv.core.Mat;
+
+/**
+ * Passes frames from one pipeline stage to the next, keeping only the newest one.
+ * Each frame travels with its sequence number and capture time.
+ * The producer never waits: publishing a frame replaces any frame the consumer
+ * has not taken yet, and the replaced frame is counted as dropped. Frames are
+ * copied into a small set of recycled Mats, so once warmed up the handoff does
+ * not allocate native memory per frame. Once closed, the handoff releases every
+ * frame it is given, so a producer or consumer that is still running cannot leak one.
+ */
+final class FrameHandoff {
+
+    /** The number of recycled Mats kept for the producer */
+    private static final int SPARE_COUNT = 2;
+
+    /** The newest frame the consumer has not taken yet */
+    private final AtomicReference<CapturedFrame> latest = new AtomicReference<>();
+
+    /** Frames that are free to be filled by the producer */
+    private final AtomicReferenceArray<CapturedFrame> spares = new AtomicReferenceArray<>(SPARE_COUNT);
+
+    /** The counters of the consuming stage */
+    private final StageCounters counters;
+
+    /** The consumer thread waiting for a frame, if any */
+    private volatile Thread waiter;
+
+    /** Whether close() has been called */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a FrameHandoff that reports drops to the consuming stage's counters.
+     *
+     * @param counters the counters of the consuming stage
+     */
+    FrameHandoff(StageCounters counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * Copies a frame into the handoff, replacing the frame the consumer has not taken yet.
+     *
+     * @param frame the frame to pass on; the producer keeps ownership of it
+     * @param sequence the number of the frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     */
+    void publish(Mat frame, long sequence, long captureNanos) {
+        if (closed) {
+            return;
+        }
+
+        // Copy into a recycled frame so the producer can read its next frame into the same Mat
+        CapturedFrame copy = takeSpare();
+        copy.set(frame, sequence, captureNanos);
+
+        // Make the copy the newest frame and recycle the one it replaced
+        CapturedFrame stale = latest.getAndSet(copy);
+
+        if (stale != null) {
+            counters.recordDropped();
+            recycle(stale);
+        }
+
+        // A close() that ran meanwhile may have missed the copy, so release it here
+        if (closed) {
+            release(latest.getAndSet(null));
+        }
+
+        // Wake the consumer if it is waiting for a frame
+        Thread consumer = waiter;
+
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Takes the newest frame without waiting.
+     * The caller owns the frame until it hands it back with recycle().
+     *
+     * @return the newest frame, or null if no new frame has been published
+     */
+    CapturedFrame poll() {
+        return latest.getAndSet(null);
+    }
+
+    /**
+     * Takes the newest frame, waiting up to the given time for one to be published.
+     * The caller owns the frame until it hands it back with recycle().
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the newest frame, or null if none was published in time
+     */
+    CapturedFrame await(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiter = Thread.currentThread();
+
+        try {
+            CapturedFrame frame;
+
+            while ((frame = latest.getAndSet(null)) == null) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            return frame;
+        } finally {
+            waiter = null;
+        }
+    }
+
+    /**
+     * Hands a frame back so its memory can be reused for a later frame.
+     * After close() the frame is released instead.
+     *
+     * @param frame a frame taken from this handoff
+     */
+    void recycle(CapturedFrame frame) {
+        if (!closed) {
+            for (int i = 0; i < SPARE_COUNT; i++) {
+                if (spares.compareAndSet(i, null, frame)) {
+                    // A close() that ran meanwhile may have missed the spare, so take it back and release it
+                    if (closed) {
+                        release(spares.getAndSet(i, null));
+                    }
+
+                    return;
+                }
+            }
+        }
+
+        // Every spare slot is taken or the handoff is closed, so the frame's native memory is freed right away
+        frame.release();
+    }
+
+    /**
+     * Releases the pending frame and every recycled frame. Frames published or
+     * recycled afterwards, by threads that have not stopped yet, are released right away.
+     */
+    void close() {
+        closed = true;
+        release(latest.getAndSet(null));
+
+        for (int i = 0; i < SPARE_COUNT; i++) {
+            release(spares.getAndSet(i, null));
+        }
+    }
+
+    /**
+     * Releases a frame taken out of the handoff, if there was one.
+     *
+     * @param frame the frame to release, or null
+     */
+    private static void release(CapturedFrame frame) {
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Takes a recycled frame, or creates a new one if none is free.
+     *
+     * @return a frame owned by the producer
+     */
+    private CapturedFrame takeSpare() {
+        for (int i = 0; i < SPARE_COUNT; i++) {
+            CapturedFrame spare = spares.getAndSet(i, null);
+
+            if (spare != null) {
+                return spare;
+            }
+        }
+
+        return new CapturedFrame();
+    }
+}
@@ -0,0 +1,64 @@
+package com.codedotorg;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spaces out frames read from a file or generator so they arrive at a given frame rate.
+ * In max speed mode it never waits, so the pipeline's raw throughput can be measured.
+ * The frame rate may be changed while another thread is waiting for frames.
+ */
+final class FramePacer {
+
+    /** The time between frames in nanoseconds, or 0 to never wait */
+    private volatile long intervalNanos;
+
+    /** The time the next frame is due */
+    private long nextFrameNanos;
+
+    /**
+     * Constructs a pacer for the given frame rate.
+     *
+     * @param fps the frame rate; values of 0 or less never wait
+     * @param maxSpeed whether to ignore the frame rate and never wait
+     */
+    FramePacer(double fps, boolean maxSpeed) {
+        intervalNanos = maxSpeed || fps <= 0 ? 0 : (long) (1e9 / fps);
+    }
+
+    /**
+     * Changes the frame rate, taking effect from the next frame.
+     *
+     * @param fps the frame rate; values of 0 or less never wait
+     */
+    void setFps(double fps) {
+        intervalNanos = fps <= 0 ? 0 : (long) (1e9 / fps);
+    }
+
+    /**
+     * Waits until the next frame is due.
+     * If the caller fell behind, the schedule restarts from now instead of
+     * sending a burst of frames to catch up.
+     */
+    void awaitNextFrame() {
+        long interval = intervalNanos;
+
+        if (interval == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        // Restart the schedule if the caller fell behind, or if a faster rate makes the next frame due sooner
+        if (nextFrameNanos == 0 || now - nextFrameNanos > interval || nextFrameNanos - now > interval) {
+            nextFrameNanos = now;
+        }
+
+        // Sleep until the frame is due; parkNanos can wake early, so check again
+        while (nextFrameNanos - now > 0) {
+            LockSupport.parkNanos(nextFrameNanos - now);
+            now = System.nanoTime();
+        }
+
+        nextFrameNanos += interval;
+    }
+}
@@ -0,0 +1,512 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Records frames together with the predictions made for them, so problems seen in
+ * the field can be replayed offline with a RecordingReader.
+ *
+ * Recording only copies the frame, downscaled if it is wider than maxWidth, into one
+ * of a fixed set of slots and queues it; a writer thread appends the queued frames to
+ * memory-mapped segment files. If the writer falls behind and no slot is free, the
+ * frame is dropped instead of making the camera wait. Because the segments are mapped,
+ * everything written survives a crash of the app.
+ *
+ * A recording is a directory holding numbered segment files and an index file.
+ * Each record in a segment holds, in order:
+ * the frame's sequence number, capture time and inference time (longs),
+ * the predicted class index and score, the class count and every softmax score,
+ * the label (a short length and UTF-8 bytes), the rows and columns of the frame as it
+ * was classified, the rows, columns, OpenCV type and pixel byte count of the stored
+ * frame, which differ from the classified size when it was downscaled, and the pixels.
+ * The index starts with a magic number and format version and then holds one
+ * fixed-size entry per record: its segment, offset, length and predicted class
+ * (ints), and its sequence number and capture time (longs). An entry with a length
+ * of 0 marks the end of an index that was not closed properly.
+ */
+public class FrameRecorder implements AutoCloseable {
+
+    /** Identifies an index file, "TMRC" in ASCII */
+    static final int MAGIC = 0x544d5243;
+
+    /** The version of the recording format; version 1 did not store the classified frame size */
+    static final int FORMAT_VERSION = 2;
+
+    /** The name of the index file in a recording directory */
+    static final String INDEX_FILE = "index.bin";
+
+    /** The bytes before the first index entry: the magic number and format version */
+    static final int INDEX_HEADER_BYTES = 8;
+
+    /** The bytes of one index entry */
+    static final int INDEX_ENTRY_BYTES = 32;
+
+    /** The default size of a segment file */
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+
+    /** The default number of frames that may wait for the writer */
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    /** The number of index entries mapped at a time */
+    private static final int INDEX_CHUNK_ENTRIES = 32 * 1024;
+
+    /** A queued frame and the prediction made for it */
+    private static final class Slot {
+        private final Mat pixels = new Mat();
+        private int sourceRows;
+        private int sourceCols;
+        private long sequence;
+        private long captureNanos;
+        private long inferenceNanos;
+        private Prediction prediction;
+    }
+
+    /** The directory the recording is written to */
+    private final Path directory;
+
+    /** Frames wider than this are downscaled before they are queued, or 0 to record full frames */
+    private final int maxWidth;
+
+    /** The size of each segment file, unless a single record is larger */
+    private final long segmentBytes;
+
+    /** Slots that are free to be filled by record() */
+    private final BlockingQueue<Slot> free;
+
+    /** Slots waiting for the writer thread, in recording order */
+    private final BlockingQueue<Slot> filled;
+
+    /** Counts the frames written as processed and the frames dropped because no slot was free as dropped */
+    private final StageCounters counters = new StageCounters("recorder");
+
+    /** The thread that writes the queued frames, or null before start() */
+    private Thread writer;
+
+    /** Whether record() accepts frames */
+    private volatile boolean recording;
+
+    /** The record() calls that are filling a slot, which the writer waits for before it frees the slots */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /** The pixels of the frame being written; only used by the writer thread */
+    private byte[] pixelBuffer = new byte[0];
+
+    /** The open segment file; only used by the writer thread */
+    private FileChannel segmentChannel;
+
+    /** The mapped memory of the open segment; only used by the writer thread */
+    private MappedByteBuffer segment;
+
+    /** The number of the open segment, counted from 0; only used by the writer thread */
+    private int segmentNumber = -1;
+
+    /** The index file; only used by the writer thread */
+    private FileChannel indexChannel;
+
+    /** The mapped chunk of the index the next entries go into; only used by the writer thread */
+    private MappedByteBuffer indexChunk;
+
+    /** The number of index entries written; only used by the writer thread */
+    private long entryCount;
+
+    /**
+     * Constructs a FrameRecorder that records full frames with the default segment size and queue.
+     *
+     * @param directory the directory to write the recording to; created if it does not exist
+     */
+    public FrameRecorder(Path directory) {
+        this(directory, 0, DEFAULT_SEGMENT_BYTES, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructs a FrameRecorder.
+     *
+     * @param directory the directory to write the recording to; created if it does not exist
+     * @param maxWidth frames wider than this are downscaled, keeping their aspect ratio; 0 records full frames
+     * @param segmentBytes the size of each segment file
+     * @param queueCapacity the number of frames that may wait for the writer before frames are dropped
+     */
+    public FrameRecorder(Path directory, int maxWidth, long segmentBytes, int queueCapacity) {
+        // A mapped buffer and the record offsets in the index are limited to 2 GB
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes must be between 1 and " + Integer.MAX_VALUE);
+        }
+
+        this.directory = directory;
+        this.maxWidth = maxWidth;
+        this.segmentBytes = segmentBytes;
+        this.free = new ArrayBlockingQueue<>(queueCapacity);
+        this.filled = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < queueCapacity; i++) {
+            free.add(new Slot());
+        }
+    }
+
+    /**
+     * Creates the recording directory and index and starts the writer thread.
+     * Prints an error message and stack trace to the console if the recording cannot be created.
+     *
+     * @return true if frames are being recorded
+     */
+    public synchronized boolean start() {
+        if (writer != null) {
+            return recording;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+            indexChannel.write(header, 0);
+        } catch (IOException e) {
+            System.err.println("Failed to create the recording");
+            e.printStackTrace();
+            return false;
+        }
+
+        recording = true;
+
+        writer = new Thread(this::writeFrames, "frame-recorder");
+        writer.setDaemon(true);
+        writer.start();
+
+        return true;
+    }
+
+    /**
+     * Queues a frame and its prediction to be written. Never waits for the writer:
+     * the frame is dropped if every slot is still waiting to be written.
+     *
+     * @param frame the frame the prediction was made for; copied, so the caller keeps ownership
+     * @param sequence the number of the frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     * @param inferenceNanos how long the model took for the frame
+     * @param prediction the prediction made for the frame
+     * @return true if the frame was queued
+     */
+    public boolean record(Mat frame, long sequence, long captureNanos, long inferenceNanos, Prediction prediction) {
+        // Count this call before checking the flag, so a writer that sees no producers also sees every queued slot
+        producers.incrementAndGet();
+
+        try {
+            return queue(frame, sequence, captureNanos, inferenceNanos, prediction);
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Copies a frame into a free slot and queues it for the writer, while record() counts the call as a producer.
+     *
+     * @param frame the frame the prediction was made for
+     * @param sequence the number of the frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     * @param inferenceNanos how long the model took for the frame
+     * @param prediction the prediction made for the frame
+     * @return true if the frame was queued
+     */
+    private boolean queue(Mat frame, long sequence, long captureNanos, long inferenceNanos, Prediction prediction) {
+        if (!recording) {
+            return false;
+        }
+
+        Slot slot = free.poll();
+
+        if (slot == null) {
+            counters.recordDropped();
+            return false;
+        }
+
+        // Downscale wide frames on the way into the slot, so the copy is also the resize
+        if (maxWidth > 0 && frame.cols() > maxWidth) {
+            int height = Math.max(1, (int) Math.round((double) frame.rows() * maxWidth / frame.cols()));
+            Imgproc.resize(frame, slot.pixels, new Size(maxWidth, height), 0, 0, Imgproc.INTER_AREA);
+        }
+        else {
+            frame.copyTo(slot.pixels);
+        }
+
+        slot.sourceRows = frame.rows();
+        slot.sourceCols = frame.cols();
+        slot.sequence = sequence;
+        slot.captureNanos = captureNanos;
+        slot.inferenceNanos = inferenceNanos;
+        slot.prediction = prediction;
+
+        filled.add(slot);
+        return true;
+    }
+
+    /**
+     * Returns the directory the recording is written to.
+     *
+     * @return the recording directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the counters of the recorder, with written frames as processed and
+     * frames dropped because the writer fell behind as dropped.
+     *
+     * @return the recorder counters
+     */
+    public StageCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Stops recording, waits for the queued frames to be written and trims the files to their contents.
+     */
+    @Override
+    public synchronized void close() {
+        recording = false;
+
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes queued frames until the recorder is closed and the queue is empty.
+     */
+    private void writeFrames() {
+        try {
+            while (true) {
+                Slot slot = filled.poll(100, TimeUnit.MILLISECONDS);
+
+                if (slot == null) {
+                    // Finish once closed, no record() call is still filling a slot and everything queued has been written
+                    if (!recording && producers.get() == 0 && filled.isEmpty()) {
+                        break;
+                    }
+
+                    continue;
+                }
+
+                try {
+                    write(slot);
+                    counters.recordProcessed();
+                } finally {
+                    // Give the slot back even if the write failed, so finish() releases its pixels
+                    slot.prediction = null;
+                    free.add(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Failed to write the recording");
+            e.printStackTrace();
+            recording = false;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Appends one frame to the open segment and adds its index entry.
+     *
+     * @param slot the frame to write
+     * @throws IOException if a segment or the index cannot be mapped
+     */
+    private void write(Slot slot) throws IOException {
+        Prediction prediction = slot.prediction;
+        Mat pixels = slot.pixels;
+        byte[] label = prediction.getLabel().getBytes(StandardCharsets.UTF_8);
+        int pixelBytes = (int) (pixels.total() * pixels.elemSize());
+        int length = 3 * Long.BYTES + 3 * Integer.BYTES + prediction.getClassCount() * Float.BYTES
+            + Short.BYTES + label.length + 6 * Integer.BYTES + pixelBytes;
+
+        // Start a new segment if the record does not fit into the open one
+        if (segment == null || segment.remaining() < length) {
+            openSegment(length);
+        }
+
+        int offset = segment.position();
+
+        segment.putLong(slot.sequence);
+        segment.putLong(slot.captureNanos);
+        segment.putLong(slot.inferenceNanos);
+        segment.putInt(prediction.getClassIndex());
+        segment.putFloat(prediction.getScore());
+        segment.putInt(prediction.getClassCount());
+
+        for (int i = 0; i < prediction.getClassCount(); i++) {
+            segment.putFloat(prediction.getScore(i));
+        }
+
+        segment.putShort((short) label.length);
+        segment.put(label);
+
+        // Copy the pixels out of the Mat and into the mapped segment
+        if (pixelBuffer.length < pixelBytes) {
+            pixelBuffer = new byte[pixelBytes];
+        }
+
+        Mat continuous = pixels.isContinuous() ? pixels : pixels.clone();
+        continuous.get(0, 0, pixelBuffer);
+
+        if (continuous != pixels) {
+            continuous.release();
+        }
+
+        segment.putInt(slot.sourceRows);
+        segment.putInt(slot.sourceCols);
+        segment.putInt(pixels.rows());
+        segment.putInt(pixels.cols());
+        segment.putInt(pixels.type());
+        segment.putInt(pixelBytes);
+        segment.put(pixelBuffer, 0, pixelBytes);
+
+        addIndexEntry(offset, length, prediction.getClassIndex(), slot.sequence, slot.captureNanos);
+    }
+
+    /**
+     * Trims the open segment to its contents and maps the next one.
+     *
+     * @param minBytes the size of the record that must fit into the new segment
+     * @throws IOException if the segment cannot be created
+     */
+    private void openSegment(int minBytes) throws IOException {
+        closeSegment();
+        segmentNumber++;
+
+        segmentChannel = FileChannel.open(directory.resolve(segmentName(segmentNumber)), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, minBytes));
+    }
+
+    /**
+     * Adds the entry of a written record to the index, mapping the next chunk of the index when needed.
+     *
+     * @param offset the position of the record in its segment
+     * @param length the size of the record in bytes
+     * @param classIndex the predicted class of the record
+     * @param sequence the number of the frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     * @throws IOException if the index cannot be mapped
+     */
+    private void addIndexEntry(int offset, int length, int classIndex, long sequence, long captureNanos)
+            throws IOException {
+        if (indexChunk == null || !indexChunk.hasRemaining()) {
+            long position = INDEX_HEADER_BYTES + entryCount * INDEX_ENTRY_BYTES;
+            indexChunk = indexChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                (long) INDEX_CHUNK_ENTRIES * INDEX_ENTRY_BYTES);
+        }
+
+        indexChunk.putInt(segmentNumber);
+        indexChunk.putInt(offset);
+        indexChunk.putInt(length);
+        indexChunk.putInt(classIndex);
+        indexChunk.putLong(sequence);
+        indexChunk.putLong(captureNanos);
+        entryCount++;
+    }
+
+    /**
+     * Trims the open segment to the records written into it and closes it.
+     */
+    private void closeSegment() {
+        if (segmentChannel == null) {
+            return;
+        }
+
+        int used = segment.position();
+        segment.force();
+        segment = null;
+
+        try {
+            // Trimming can fail on systems that do not allow resizing a mapped file; the records stay readable
+            segmentChannel.truncate(used);
+        } catch (IOException e) {
+            // Keep the untrimmed segment
+        }
+
+        try {
+            segmentChannel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close a recording segment");
+            e.printStackTrace();
+        }
+
+        segmentChannel = null;
+    }
+
+    /**
+     * Closes the open segment and the index, trimming both to their contents,
+     * and frees the slots' memory. Runs on the writer thread when it stops.
+     */
+    private void finish() {
+        // Stop accepting frames and wait for record() calls that passed the check before; they never block
+        recording = false;
+
+        while (producers.get() > 0) {
+            Thread.yield();
+        }
+
+        closeSegment();
+
+        if (indexChunk != null) {
+            indexChunk.force();
+            indexChunk = null;
+        }
+
+        try {
+            indexChannel.truncate(INDEX_HEADER_BYTES + entryCount * INDEX_ENTRY_BYTES);
+        } catch (IOException e) {
+            // The end of the entries is marked by a zero length
+        }
+
+        try {
+            indexChannel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the recording index");
+            e.printStackTrace();
+        }
+
+        // Drop the frames that could not be written and free every slot's memory
+        filled.drainTo(free);
+
+        for (Slot slot : free) {
+            slot.pixels.release();
+            slot.prediction = null;
+        }
+    }
+
+    /**
+     * Returns the file name of a segment.
+     *
+     * @param number the number of the segment, counted from 0
+     * @return the segment's file name
+     */
+    static String segmentName(int number) {
+        return String.format("segment-%05d.bin", number);
+    }
+}
@@ -0,0 +1,39 @@
+package com.codedotorg;
+
+import org.opencv.core.Mat;
+
+/**
+ * Supplies frames to the camera pipeline.
+ * Implementations wrap a webcam, a video file, a directory of images or a
+ * synthetic generator, so the pipeline can also run on machines without a camera.
+ */
+public interface FrameSource extends AutoCloseable {
+
+    /**
+     * Opens the source. Must be called before the first read.
+     *
+     * @return true if frames can be read
+     */
+    boolean open();
+
+    /**
+     * Reads the next frame into the given Mat, waiting until it is due when the source is paced.
+     *
+     * @param frame the Mat to receive the BGR frame
+     * @return true if a frame was read, false at the end of the source or on failure
+     */
+    boolean read(Mat frame);
+
+    /**
+     * Returns a short description of the source for log messages.
+     *
+     * @return the name of the source
+     */
+    String getName();
+
+    /**
+     * Releases the native resources of the source.
+     */
+    @Override
+    void close();
+}
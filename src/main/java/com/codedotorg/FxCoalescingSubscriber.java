@@ -0,0 +1,111 @@
+package com.codedotorg;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+
+/**
+ * Delivers the items of a Flow.Publisher to the JavaFX thread, keeping only the newest one.
+ * Items that arrive while an update is already waiting on the JavaFX thread replace the
+ * waiting item instead of queueing another update, so a fast publisher can never flood
+ * the JavaFX event queue and the UI always shows the latest value as soon as it can.
+ *
+ * @param <T> the type of the published items
+ */
+public class FxCoalescingSubscriber<T> implements Flow.Subscriber<T> {
+
+    /** Receives the newest item on the JavaFX thread */
+    private final Consumer<T> consumer;
+
+    /** The newest item not yet handed to the consumer */
+    private final AtomicReference<T> latest = new AtomicReference<>();
+
+    /** Whether an update is already scheduled on the JavaFX thread */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** Hands the newest item to the consumer, created once so scheduling it does not allocate */
+    private final Runnable deliverTask = this::deliverLatest;
+
+    /** The subscription to the publisher, or null before subscribing */
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * Constructs an FxCoalescingSubscriber.
+     *
+     * @param consumer receives the newest item on the JavaFX thread
+     */
+    public FxCoalescingSubscriber(Consumer<T> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Requests every item, since coalescing keeps the subscriber from ever falling behind.
+     *
+     * @param subscription the subscription to the publisher
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    /**
+     * Stores the item as the newest one and schedules an update unless one is already waiting.
+     *
+     * @param item the published item
+     */
+    @Override
+    public void onNext(T item) {
+        latest.set(item);
+
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(deliverTask);
+        }
+    }
+
+    /**
+     * Prints an error message and stack trace to the console when the publisher fails.
+     *
+     * @param throwable the failure of the publisher
+     */
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Failed to deliver predictions to the JavaFX thread");
+        throwable.printStackTrace();
+    }
+
+    /**
+     * Does nothing when the publisher closes; the last item has already been scheduled.
+     */
+    @Override
+    public void onComplete() {
+    }
+
+    /**
+     * Stops receiving items from the publisher.
+     */
+    public void cancel() {
+        Flow.Subscription current = subscription;
+
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Hands the newest item to the consumer. Runs on the JavaFX thread.
+     */
+    private void deliverLatest() {
+        // Allow the publisher thread to schedule the next update before taking the item,
+        // so an item published meanwhile is either taken now or scheduled again
+        scheduled.set(false);
+        T item = latest.getAndSet(null);
+
+        if (item != null) {
+            consumer.accept(item);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Replays the images of a directory in file name order, as if they were video frames.
+ */
+public class ImageDirectorySource implements FrameSource {
+
+    /** The directory holding the images */
+    private final Path directory;
+
+    /** The rate at which images are delivered */
+    private final double fps;
+
+    /** Whether to ignore the frame rate */
+    private final boolean maxSpeed;
+
+    /** Whether to start again from the first image after the last one */
+    private final boolean loop;
+
+    /** The image files, sorted by name */
+    private List<Path> images;
+
+    /** The position of the next image */
+    private int next;
+
+    /** Spaces images at the given frame rate */
+    private FramePacer pacer;
+
+    /**
+     * Constructs a source for a directory of images.
+     *
+     * @param directory the directory holding PNG, JPEG or BMP images
+     * @param fps the rate at which images are delivered
+     * @param maxSpeed whether to ignore the frame rate and decode as fast as possible
+     * @param loop whether to start again from the first image after the last one
+     */
+    public ImageDirectorySource(Path directory, double fps, boolean maxSpeed, boolean loop) {
+        this.directory = directory;
+        this.fps = fps;
+        this.maxSpeed = maxSpeed;
+        this.loop = loop;
+    }
+
+    @Override
+    public boolean open() {
+        try (Stream<Path> files = Files.list(directory)) {
+            images = files.filter(ImageDirectorySource::isImage).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Failed to list the images in " + directory);
+            e.printStackTrace();
+            return false;
+        }
+
+        next = 0;
+        pacer = new FramePacer(fps, maxSpeed);
+        return !images.isEmpty();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        pacer.awaitNextFrame();
+
+        // Skip files that cannot be decoded, but never go round the directory more than once per read
+        for (int attempts = 0; attempts < images.size(); attempts++) {
+            if (next == images.size()) {
+                if (!loop) {
+                    return false;
+                }
+
+                next = 0;
+            }
+
+            Mat image = Imgcodecs.imread(images.get(next++).toString(), Imgcodecs.IMREAD_COLOR);
+
+            if (!image.empty()) {
+                image.copyTo(frame);
+                image.release();
+                return true;
+            }
+
+            image.release();
+        }
+
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return "Images " + directory;
+    }
+
+    @Override
+    public void close() {
+        images = null;
+    }
+
+    /**
+     * Returns whether a file has the extension of an image OpenCV can decode.
+     *
+     * @param file the file to check
+     * @return true for PNG, JPEG and BMP files
+     */
+    static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+}
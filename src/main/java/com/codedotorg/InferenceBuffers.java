@@ -0,0 +1,329 @@
+package com.codedotorg;
+
+import java.nio.FloatBuffer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Holds the Mats and arrays used by one thread to run the model on a frame.
+ * The buffers are sized on the first frame of a given shape and reused for
+ * every following frame of that shape, so steady-state inference does not
+ * allocate new images, crop regions, cropped views, input or softmax arrays,
+ * or tensor shapes. The input and softmax arrays only ever grow, so a thread
+ * that switches between single frames and batches of different sizes keeps
+ * the arrays of its largest batch instead of reallocating on every switch.
+ */
+final class InferenceBuffers {
+
+    /** The number of frame buffers whose cropped views are kept, enough for the capture and handoff Mats */
+    private static final int CROP_VIEW_COUNT = 4;
+
+    /** The preprocessor the cached crop region was computed for */
+    private Object cropOwner;
+
+    /** The frame width the cached crop region was computed for */
+    private int cropFrameWidth = -1;
+
+    /** The frame height the cached crop region was computed for */
+    private int cropFrameHeight = -1;
+
+    /** The cached crop region, or null if the whole frame is used */
+    private Rect crop;
+
+    /** The frames whose cropped views are cached, compared by identity */
+    private final Mat[] cropViewParents = new Mat[CROP_VIEW_COUNT];
+
+    /** The pixel address each cached frame had when its view was made */
+    private final long[] cropViewAddresses = new long[CROP_VIEW_COUNT];
+
+    /** The cached cropped views, each sharing the pixels of its frame */
+    private final Mat[] cropViews = new Mat[CROP_VIEW_COUNT];
+
+    /** The cache slot the next new cropped view replaces */
+    private int nextCropView;
+
+    /** The frame resized to the model's input size */
+    private Mat resized;
+
+    /** The resized frame converted to RGB */
+    private Mat converted;
+
+    /** The converted frame as normalized floats */
+    private Mat normalized;
+
+    /** The normalized pixel values of a single image in a batch */
+    private float[] sample = new float[0];
+
+    /** The normalized pixel values fed to the model; may be longer than the current input */
+    private float[] input = new float[0];
+
+    /** Wraps the input array so it can be handed to Tensor.create */
+    private FloatBuffer inputBuffer = FloatBuffer.wrap(input);
+
+    /** The softmax scores copied out of the output tensor; may be longer than the current output */
+    private float[] scores = new float[0];
+
+    /** Wraps the scores array so the output tensor can be written into it */
+    private FloatBuffer scoresBuffer = FloatBuffer.wrap(scores);
+
+    /** The shape of the last input tensor, as [batch, height, width, channels] */
+    private final long[] shape = new long[4];
+
+    /** How long the last model run of this thread took, or 0 if the last prediction did not run the model */
+    private long runNanos;
+
+    /**
+     * Returns how long the last model run of this thread took.
+     *
+     * @return the run time in nanoseconds, or 0 if the last prediction did not run the model
+     */
+    long runNanos() {
+        return runNanos;
+    }
+
+    /**
+     * Records how long a model run of this thread took.
+     *
+     * @param nanos the run time in nanoseconds, or 0 if the prediction did not run the model
+     */
+    void setRunNanos(long nanos) {
+        runNanos = nanos;
+    }
+
+    /**
+     * Returns whether the cached crop region was computed by the given preprocessor for a frame of the given size.
+     *
+     * @param owner the preprocessor asking for the crop region
+     * @param frameWidth the width of the frame
+     * @param frameHeight the height of the frame
+     * @return true if crop() holds the region for this frame size
+     */
+    boolean hasCrop(Object owner, int frameWidth, int frameHeight) {
+        return owner == cropOwner && frameWidth == cropFrameWidth && frameHeight == cropFrameHeight;
+    }
+
+    /**
+     * Returns the cached crop region.
+     *
+     * @return the region to crop, or null if the whole frame is used
+     */
+    Rect crop() {
+        return crop;
+    }
+
+    /**
+     * Caches the crop region a preprocessor computed for a frame size.
+     *
+     * @param owner the preprocessor that computed the region
+     * @param frameWidth the width of the frame
+     * @param frameHeight the height of the frame
+     * @param region the region to crop, or null if the whole frame is used
+     */
+    void setCrop(Object owner, int frameWidth, int frameHeight, Rect region) {
+        // Views of the previous region are no longer useful, so stop holding their frames' pixels
+        releaseCropViews();
+
+        cropOwner = owner;
+        cropFrameWidth = frameWidth;
+        cropFrameHeight = frameHeight;
+        crop = region;
+    }
+
+    /**
+     * Returns a view of the cached crop region of a frame, reusing the view made for the same frame Mat.
+     * Capture loops read into the same few Mats over and over, so after the first frames every
+     * call finds its view here. A view keeps its frame's pixels alive, so every call first releases
+     * the views of frames that have been released or reallocated since; a caller that decodes and
+     * releases a new Mat per image therefore holds its released pixels only until its next frame.
+     *
+     * @param frame the camera frame
+     * @return the cropped view of the frame, owned by these buffers
+     */
+    Mat cropView(Mat frame) {
+        Mat view = null;
+        int freeSlot = -1;
+
+        for (int i = 0; i < CROP_VIEW_COUNT; i++) {
+            // A released frame reports no pixels and a reallocated one reports new ones
+            if (cropViews[i] != null && cropViewParents[i].dataAddr() != cropViewAddresses[i]) {
+                releaseCropView(i);
+            }
+
+            if (cropViews[i] == null) {
+                freeSlot = freeSlot < 0 ? i : freeSlot;
+            }
+            else if (cropViewParents[i] == frame) {
+                view = cropViews[i];
+            }
+        }
+
+        if (view != null) {
+            return view;
+        }
+
+        // Use a free slot, or replace the oldest view
+        int slot = freeSlot;
+
+        if (slot < 0) {
+            slot = nextCropView;
+            nextCropView = (nextCropView + 1) % CROP_VIEW_COUNT;
+            releaseCropView(slot);
+        }
+
+        cropViews[slot] = frame.submat(crop);
+        cropViewParents[slot] = frame;
+        cropViewAddresses[slot] = frame.dataAddr();
+        return cropViews[slot];
+    }
+
+    /**
+     * Releases every cached cropped view, letting go of the frames' pixels.
+     */
+    void releaseCropViews() {
+        for (int i = 0; i < CROP_VIEW_COUNT; i++) {
+            releaseCropView(i);
+        }
+    }
+
+    /**
+     * Releases one cached cropped view, if the slot holds one.
+     *
+     * @param slot the cache slot
+     */
+    private void releaseCropView(int slot) {
+        if (cropViews[slot] != null) {
+            cropViews[slot].release();
+            cropViews[slot] = null;
+            cropViewParents[slot] = null;
+        }
+    }
+
+    /**
+     * Returns the reusable Mat holding the resized frame.
+     *
+     * @return the resized frame Mat
+     */
+    Mat resized() {
+        if (resized == null) {
+            resized = new Mat();
+        }
+
+        return resized;
+    }
+
+    /**
+     * Returns the reusable Mat holding the color converted frame.
+     *
+     * @return the converted frame Mat
+     */
+    Mat converted() {
+        if (converted == null) {
+            converted = new Mat();
+        }
+
+        return converted;
+    }
+
+    /**
+     * Returns the reusable Mat holding the normalized float frame.
+     *
+     * @return the normalized frame Mat
+     */
+    Mat normalized() {
+        if (normalized == null) {
+            normalized = new Mat();
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Returns a sample array with exactly the given length, reusing the previous one when possible.
+     *
+     * @param length the number of floats in one image
+     * @return the sample array
+     */
+    float[] sample(int length) {
+        if (sample.length != length) {
+            sample = new float[length];
+        }
+
+        return sample;
+    }
+
+    /**
+     * Returns an input array holding at least the given number of floats, reusing the previous one
+     * unless it is too short. Only the first length values belong to the current input.
+     *
+     * @param length the number of floats in the input tensor
+     * @return the input array
+     */
+    float[] input(int length) {
+        if (input.length < length) {
+            input = new float[length];
+            inputBuffer = FloatBuffer.wrap(input);
+        }
+
+        return input;
+    }
+
+    /**
+     * Returns the buffer wrapping the input array, rewound to its start and limited to the given
+     * length, so Tensor.create sees exactly the elements of the current input.
+     *
+     * @param length the number of floats in the input tensor
+     * @return the input buffer
+     */
+    FloatBuffer inputBuffer(int length) {
+        inputBuffer.clear();
+        inputBuffer.limit(length);
+        return inputBuffer;
+    }
+
+    /**
+     * Returns a scores array holding at least the given number of floats, reusing the previous one
+     * unless it is too short. Only the first length values belong to the current output.
+     *
+     * @param length the number of classes times the number of images
+     * @return the scores array
+     */
+    float[] scores(int length) {
+        if (scores.length < length) {
+            scores = new float[length];
+            scoresBuffer = FloatBuffer.wrap(scores);
+        }
+
+        return scores;
+    }
+
+    /**
+     * Returns the buffer wrapping the scores array, rewound to its start and limited to the given length.
+     *
+     * @param length the number of scores in the output tensor
+     * @return the scores buffer
+     */
+    FloatBuffer scoresBuffer(int length) {
+        scoresBuffer.clear();
+        scoresBuffer.limit(length);
+        return scoresBuffer;
+    }
+
+    /**
+     * Returns the reusable input tensor shape filled with the given dimensions.
+     * Tensor.create copies the shape, so the same array can be passed for every run.
+     *
+     * @param batchSize the number of images in the batch
+     * @param height the height of each image
+     * @param width the width of each image
+     * @param channels the number of channels of each image
+     * @return the shape as [batchSize, height, width, channels]
+     */
+    long[] shape(int batchSize, int height, int width, int channels) {
+        shape[0] = batchSize;
+        shape[1] = height;
+        shape[2] = width;
+        shape[3] = channels;
+        return shape;
+    }
+}
@@ -0,0 +1,297 @@
+package com.codedotorg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Classifies frames on an InferenceServer instead of loading the model in this process.
+ * Requests are pipelined: submit() sends a frame and returns at once, and a reader
+ * thread completes each future when its response arrives. A frame the server rejects
+ * because it is overloaded fails with a RejectedExecutionException, so callers can
+ * drop it or retry later.
+ *
+ * Run as a load test with: InferenceClient [port] [clients] [seconds] [size]
+ */
+public class InferenceClient implements AutoCloseable {
+
+    /** The connection to the server */
+    private final Socket socket;
+
+    /** Sends requests; guarded by itself */
+    private final DataOutputStream out;
+
+    /** Receives responses on the reader thread */
+    private final DataInputStream in;
+
+    /** The futures of the requests that have not been answered yet, by request id */
+    private final Map<Integer, CompletableFuture<Prediction>> pending = new ConcurrentHashMap<>();
+
+    /** The pixels of the latest request; guarded by out */
+    private byte[] pixels = new byte[0];
+
+    /** The id of the next request; guarded by out */
+    private int nextId;
+
+    /** Whether the connection is still open */
+    private volatile boolean open = true;
+
+    /**
+     * Connects to a server on this machine.
+     *
+     * @param port the port the server listens on
+     * @throws IOException if the server cannot be reached
+     */
+    public InferenceClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        Thread reader = new Thread(this::readResponses, "inference-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a frame to be classified by the server.
+     * The frame is copied into the request, so the caller may reuse or release it right away.
+     *
+     * @param frame an 8-bit BGR frame to classify
+     * @return a future completed with the frame's prediction
+     */
+    public CompletableFuture<Prediction> submit(Mat frame) {
+        CompletableFuture<Prediction> result = new CompletableFuture<>();
+
+        // The protocol carries 8-bit BGR pixels only, such as the frames read from a camera
+        if (frame.depth() != CvType.CV_8U || frame.channels() != 3 || frame.empty()) {
+            result.completeExceptionally(new IllegalArgumentException("Only non-empty 8-bit BGR frames can be sent"));
+            return result;
+        }
+
+        // The request must be sent in one piece, so the pixels are copied out of a continuous frame
+        Mat continuous = frame.isContinuous() ? frame : frame.clone();
+
+        try {
+            synchronized (out) {
+                int id = nextId++;
+                pending.put(id, result);
+
+                // Fail the request here if the reader thread closed the connection before it was registered
+                if (!open) {
+                    pending.remove(id);
+                    result.completeExceptionally(new IOException("The connection is closed"));
+                    return result;
+                }
+
+                if (pixels.length < InferenceProtocol.frameBytes(continuous)) {
+                    pixels = new byte[InferenceProtocol.frameBytes(continuous)];
+                }
+
+                try {
+                    InferenceProtocol.writeRequest(out, id, continuous, pixels);
+                    out.flush();
+                } catch (IOException e) {
+                    pending.remove(id);
+                    result.completeExceptionally(e);
+                }
+            }
+        } finally {
+            if (continuous != frame) {
+                continuous.release();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Classifies a frame on the server and waits for the prediction.
+     * Prints an error message to the console if the server rejected the frame or failed.
+     *
+     * @param frame an 8-bit BGR frame to classify
+     * @return the prediction, or null if the frame was not classified
+     */
+    public Prediction predict(Mat frame) {
+        try {
+            return submit(frame).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.err.println("Failed to classify the frame on the server: " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of requests that have been sent but not answered yet.
+     *
+     * @return the pending request count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Closes the connection and fails every request that has not been answered.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close the inference connection");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Completes the futures of the responses as they arrive, until the connection closes.
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                int id = in.readInt();
+                byte status = in.readByte();
+                CompletableFuture<Prediction> result;
+
+                if (status == InferenceProtocol.STATUS_OK) {
+                    Prediction prediction = InferenceProtocol.readPrediction(in);
+                    result = pending.remove(id);
+
+                    if (result != null) {
+                        result.complete(prediction);
+                    }
+
+                    continue;
+                }
+
+                String message = in.readUTF();
+                result = pending.remove(id);
+
+                if (result == null) {
+                    continue;
+                }
+
+                if (status == InferenceProtocol.STATUS_OVERLOADED) {
+                    result.completeExceptionally(new RejectedExecutionException(message));
+                }
+                else {
+                    result.completeExceptionally(new IllegalStateException(message));
+                }
+            }
+        } catch (IOException e) {
+            // The connection closed; fail the requests that will never be answered
+            synchronized (out) {
+                open = false;
+            }
+
+            for (CompletableFuture<Prediction> result : pending.values()) {
+                result.completeExceptionally(new IOException("The connection is closed", e));
+            }
+
+            pending.clear();
+        }
+    }
+
+    /**
+     * Load tests a local server: each simulated client sends random frames one after
+     * another for the given time, then the throughput, latency and rejections are printed.
+     *
+     * @param args optional port, number of clients, duration in seconds and frame size
+     * @throws Exception if a client cannot connect
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : InferenceServer.DEFAULT_PORT;
+        int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : ModelManager.DEFAULT_INPUT_SIZE;
+
+        OpenCvLoader.load().join();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong overloaded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < clientCount; i++) {
+            InferenceClient client = new InferenceClient(port);
+
+            Thread thread = new Thread(() -> {
+                Mat frame = new Mat(size, size, CvType.CV_8UC3);
+                Core.randu(frame, 0, 256);
+
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+
+                    try {
+                        submitAndWait(client, frame);
+                        latency.record(System.nanoTime() - start);
+                    } catch (RejectedExecutionException e) {
+                        overloaded.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+
+                frame.release();
+                client.close();
+            }, "load-test-client-" + i);
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("%d clients for %d s: %.1f predictions/s, %d overloaded, %d failed%n",
+            clientCount, seconds, latency.getCount() / (double) seconds, overloaded.get(), failed.get());
+        System.out.printf("latency ms: mean=%.2f p50=%.2f p99=%.2f max=%.2f%n",
+            latency.getMean() / 1e6, latency.getPercentile(50) / 1e6,
+            latency.getPercentile(99) / 1e6, latency.getMax() / 1e6);
+    }
+
+    /**
+     * Sends a frame and waits for its prediction, rethrowing the failure of the request.
+     *
+     * @param client the client to send the frame with
+     * @param frame the frame to classify
+     * @return the prediction
+     */
+    private static Prediction submitAndWait(InferenceClient client, Mat frame) {
+        try {
+            return client.submit(frame).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
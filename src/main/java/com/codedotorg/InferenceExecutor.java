@@ -0,0 +1,178 @@
+package com.codedotorg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.opencv.core.Mat;
+
+/**
+ * Runs the model on several frames at the same time with a fixed pool of worker threads.
+ * Each frame's future completes as soon as its own prediction is ready, while the
+ * optional ordered listener receives the predictions in the order the frames were submitted.
+ * All workers share one ModelManager, whose session and per-thread buffers make concurrent
+ * predictions safe; pair the pool size with SessionOptions.forWorkers(n) so the workers
+ * do not compete for the same cores.
+ */
+public class InferenceExecutor implements AutoCloseable {
+
+    /** The number of frames that may wait for a worker, per worker */
+    private static final int QUEUE_PER_WORKER = 4;
+
+    /** Numbers the worker threads of every executor */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** The model shared by every worker */
+    private final ModelManager model;
+
+    /** The worker threads and their bounded queue */
+    private final ThreadPoolExecutor workers;
+
+    /** Receives the predictions in submission order, or null if nobody needs the order */
+    private final Consumer<Prediction> orderedListener;
+
+    /** The sequence number of the next submitted frame */
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /** Predictions that finished before an earlier frame, by sequence number; guarded by this */
+    private final Map<Long, Prediction> finishedEarly = new HashMap<>();
+
+    /** The sequence number of the next prediction to hand to the ordered listener; guarded by this */
+    private long nextToDeliver;
+
+    /**
+     * Constructs an executor without an ordered listener.
+     *
+     * @param model the model shared by every worker
+     * @param workerCount the number of frames run at the same time
+     */
+    public InferenceExecutor(ModelManager model, int workerCount) {
+        this(model, workerCount, null);
+    }
+
+    /**
+     * Constructs an executor that also hands every prediction to a listener in submission order.
+     * The listener is called from the worker threads, one call at a time, and should return quickly.
+     * Frames that fail are skipped by the listener but still keep their place in the order.
+     *
+     * @param model the model shared by every worker
+     * @param workerCount the number of frames run at the same time
+     * @param orderedListener receives the predictions in submission order, or null
+     */
+    public InferenceExecutor(ModelManager model, int workerCount, Consumer<Prediction> orderedListener) {
+        this.model = model;
+        this.orderedListener = orderedListener;
+
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(workerCount * QUEUE_PER_WORKER), runnable -> {
+                Thread thread = new Thread(runnable, "inference-worker-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Queues a frame to be classified by the next free worker.
+     * The frame is copied, so the caller may reuse or release it right away.
+     * If every worker is busy and the queue is full, the future fails at once
+     * with a RejectedExecutionException instead of blocking the caller.
+     *
+     * @param frame the frame to classify
+     * @return a future completed with the frame's prediction
+     */
+    public CompletableFuture<Prediction> submit(Mat frame) {
+        long sequence = nextSequence.getAndIncrement();
+        CompletableFuture<Prediction> result = new CompletableFuture<>();
+        Mat copy = frame.clone();
+
+        try {
+            workers.execute(() -> run(sequence, copy, result));
+        } catch (RejectedExecutionException e) {
+            copy.release();
+            result.completeExceptionally(e);
+            deliverInOrder(sequence, null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of frames that are queued or being classified.
+     *
+     * @return the number of unfinished frames
+     */
+    public int getPendingCount() {
+        return workers.getQueue().size() + workers.getActiveCount();
+    }
+
+    /**
+     * Stops accepting frames and waits for the queued frames to finish.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Classifies one frame on a worker thread and completes its future.
+     *
+     * @param sequence the submission sequence number of the frame
+     * @param frame the copied frame, released once classified
+     * @param result the future of the frame
+     */
+    private void run(long sequence, Mat frame, CompletableFuture<Prediction> result) {
+        Prediction prediction = null;
+
+        try {
+            prediction = model.predict(frame);
+
+            if (prediction == null) {
+                result.completeExceptionally(new IllegalStateException("Failed to run the model"));
+            }
+            else {
+                result.complete(prediction);
+            }
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            frame.release();
+            deliverInOrder(sequence, prediction);
+        }
+    }
+
+    /**
+     * Hands every prediction that is now next in line to the ordered listener.
+     *
+     * @param sequence the sequence number of the frame that just finished
+     * @param prediction its prediction, or null if it failed
+     */
+    private synchronized void deliverInOrder(long sequence, Prediction prediction) {
+        if (orderedListener == null) {
+            return;
+        }
+
+        finishedEarly.put(sequence, prediction);
+
+        // Deliver the run of consecutive predictions starting at the next expected one
+        while (finishedEarly.containsKey(nextToDeliver)) {
+            Prediction next = finishedEarly.remove(nextToDeliver++);
+
+            if (next != null) {
+                orderedListener.accept(next);
+            }
+        }
+    }
+}
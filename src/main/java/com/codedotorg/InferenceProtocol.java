@@ -0,0 +1,173 @@
+package com.codedotorg;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * The binary framing spoken between InferenceServer and InferenceClient.
+ * All numbers are big-endian, as written by DataOutputStream.
+ *
+ * A request is the request id, the frame's rows, columns and OpenCV type,
+ * the number of pixel bytes and then the pixels, row by row. Only 8-bit
+ * three-channel (CV_8UC3) frames are accepted.
+ * A response is the request id and a status byte. An OK response continues
+ * with the label, class index, score, class count and every softmax score;
+ * any other status continues with a message.
+ * Clients may send several requests before reading the responses, which
+ * can arrive in a different order than the requests were sent.
+ */
+final class InferenceProtocol {
+
+    /** The frame was classified and the prediction follows */
+    static final byte STATUS_OK = 0;
+
+    /** The server had too many frames in flight and rejected the frame without running it */
+    static final byte STATUS_OVERLOADED = 1;
+
+    /** The frame was invalid or the model failed to run on it */
+    static final byte STATUS_ERROR = 2;
+
+    /** The largest frame a request may carry, enough for an 8-bit 4K BGR image */
+    static final int MAX_FRAME_BYTES = 3840 * 2160 * 3;
+
+    private InferenceProtocol() {
+    }
+
+    /**
+     * Returns the number of pixel bytes a request for a frame carries.
+     *
+     * @param frame an 8-bit frame
+     * @return the size of the frame's pixels in bytes
+     */
+    static int frameBytes(Mat frame) {
+        return (int) (frame.total() * frame.channels());
+    }
+
+    /**
+     * Writes a request for one frame. The frame must be continuous and hold 8-bit BGR pixels.
+     *
+     * @param out the stream to write to
+     * @param id the request id, echoed in the response
+     * @param frame the frame to classify
+     * @param pixels a buffer of at least frameBytes(frame) bytes, reused between requests
+     * @throws IOException if the request cannot be written
+     */
+    static void writeRequest(DataOutputStream out, int id, Mat frame, byte[] pixels) throws IOException {
+        int length = frameBytes(frame);
+        frame.get(0, 0, pixels);
+
+        out.writeInt(id);
+        out.writeInt(frame.rows());
+        out.writeInt(frame.cols());
+        out.writeInt(frame.type());
+        out.writeInt(length);
+        out.write(pixels, 0, length);
+    }
+
+    /**
+     * Reads the frames of requests on one connection. Its pixel buffer grows to the
+     * largest frame seen, so a client that sends small frames keeps a small buffer.
+     */
+    static final class FrameReader {
+
+        /** Holds the pixels of the latest request */
+        private byte[] pixels = new byte[0];
+
+        /**
+         * Reads the pixels of a request into a frame, after its id has been read.
+         * The frame is reallocated only when its size or type changes.
+         *
+         * @param in the stream to read from
+         * @param frame the frame to fill
+         * @return null if the frame was read, or a message saying why it is invalid
+         * @throws IOException if the connection failed or the request cannot be skipped
+         */
+        String read(DataInputStream in, Mat frame) throws IOException {
+            int rows = in.readInt();
+            int cols = in.readInt();
+            int type = in.readInt();
+            int length = in.readInt();
+
+            // A length that cannot be buffered leaves the stream unreadable, so the connection must close
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                throw new IOException("Frame of " + length + " bytes exceeds the limit of " + MAX_FRAME_BYTES);
+            }
+
+            if (pixels.length < length) {
+                pixels = new byte[length];
+            }
+
+            in.readFully(pixels, 0, length);
+
+            // Every client's frames share one batch, so a frame with another channel count must not reach it
+            if (CvType.depth(type) != CvType.CV_8U || CvType.channels(type) != 3 || rows <= 0 || cols <= 0
+                    || (long) rows * cols * CvType.channels(type) != length) {
+                return "Expected " + length + " bytes of 8-bit BGR pixels, got a " + rows + "x" + cols + " frame of type " + type;
+            }
+
+            frame.create(rows, cols, type);
+            frame.put(0, 0, pixels, 0, length);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a response carrying a prediction.
+     *
+     * @param out the stream to write to
+     * @param id the id of the request
+     * @param prediction the prediction of the request's frame
+     * @throws IOException if the response cannot be written
+     */
+    static void writePrediction(DataOutputStream out, int id, Prediction prediction) throws IOException {
+        out.writeInt(id);
+        out.writeByte(STATUS_OK);
+        out.writeUTF(prediction.getLabel());
+        out.writeInt(prediction.getClassIndex());
+        out.writeFloat(prediction.getScore());
+        out.writeInt(prediction.getClassCount());
+
+        for (int i = 0; i < prediction.getClassCount(); i++) {
+            out.writeFloat(prediction.getScore(i));
+        }
+    }
+
+    /**
+     * Writes a response without a prediction.
+     *
+     * @param out the stream to write to
+     * @param id the id of the request
+     * @param status STATUS_OVERLOADED or STATUS_ERROR
+     * @param message why there is no prediction
+     * @throws IOException if the response cannot be written
+     */
+    static void writeFailure(DataOutputStream out, int id, byte status, String message) throws IOException {
+        out.writeInt(id);
+        out.writeByte(status);
+        out.writeUTF(message);
+    }
+
+    /**
+     * Reads the prediction of an OK response, after its id and status have been read.
+     *
+     * @param in the stream to read from
+     * @return the prediction
+     * @throws IOException if the response cannot be read
+     */
+    static Prediction readPrediction(DataInputStream in) throws IOException {
+        String label = in.readUTF();
+        int classIndex = in.readInt();
+        float score = in.readFloat();
+        float[] scores = new float[in.readInt()];
+
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = in.readFloat();
+        }
+
+        return new Prediction(label, classIndex, score, scores);
+    }
+}
@@ -0,0 +1,454 @@
+package com.codedotorg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+/**
+ * Serves one model to many local clients, so kiosks no longer each load their own copy.
+ * Clients connect to a loopback socket and send frames in the InferenceProtocol framing.
+ * Frames from every client go through one MicroBatcher, so requests that arrive close
+ * together share a session run no matter which client sent them.
+ * At most maxInFlight frames are queued or running at once; a frame that arrives while
+ * the server is full is answered with OVERLOADED straight away instead of waiting, so
+ * clients learn to back off while the latency of the admitted frames stays bounded.
+ *
+ * Run headless with: InferenceServer [port] [maxBatchSize] [windowMillis] [maxInFlight]
+ */
+public class InferenceServer implements AutoCloseable {
+
+    /** The port the headless server listens on unless another is given */
+    public static final int DEFAULT_PORT = 5077;
+
+    /** How often a client's writer thread checks whether the client has disconnected */
+    private static final long WRITER_POLL_MILLIS = 100;
+
+    /** The model shared by every client */
+    private final ModelManager model;
+
+    /** Groups the frames of every client into shared session runs */
+    private final MicroBatcher batcher;
+
+    /** Limits the frames that are queued or running at once */
+    private final Semaphore admission;
+
+    /** The largest number of frames that may be queued or running at once */
+    private final int maxInFlight;
+
+    /** The port to listen on, or 0 to pick a free one */
+    private final int requestedPort;
+
+    /** The open client connections, closed together with the server */
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+    /** Counts the frames answered with a prediction as processed and those rejected as overloaded as dropped */
+    private final StageCounters counters = new StageCounters("server");
+
+    /** Counts the frames that got an error response */
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /** The listening socket, or null before start() */
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Constructs a server.
+     *
+     * @param model the model shared by every client
+     * @param port the port to listen on, or 0 to pick a free one
+     * @param maxBatchSize the largest number of frames run together
+     * @param windowMillis how long the first frame of a batch waits for frames from other clients
+     * @param maxInFlight the largest number of frames queued or running at once before frames are rejected
+     */
+    public InferenceServer(ModelManager model, int port, int maxBatchSize, long windowMillis, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        this.model = model;
+        this.requestedPort = port;
+        this.maxInFlight = maxInFlight;
+        this.admission = new Semaphore(maxInFlight);
+        this.batcher = new MicroBatcher(model, maxBatchSize, windowMillis);
+    }
+
+    /**
+     * Starts listening on the loopback interface and accepting clients on a daemon thread.
+     * Prints an error message and stack trace to the console if the port cannot be opened.
+     *
+     * @return true if the server is listening
+     */
+    public synchronized boolean start() {
+        if (serverSocket != null) {
+            return true;
+        }
+
+        try {
+            // Only local clients may connect; the protocol has no authentication
+            serverSocket = new ServerSocket(requestedPort, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            System.err.println("Failed to open the inference server port");
+            e.printStackTrace();
+            return false;
+        }
+
+        Thread acceptor = new Thread(this::acceptClients, "inference-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return true;
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port, or -1 before start()
+     */
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /**
+     * Returns the model shared by every client.
+     *
+     * @return the model
+     */
+    public ModelManager getModel() {
+        return model;
+    }
+
+    /**
+     * Returns the number of frames that are queued or running.
+     *
+     * @return the frames in flight
+     */
+    public int getInFlight() {
+        return maxInFlight - admission.availablePermits();
+    }
+
+    /**
+     * Returns the number of connected clients.
+     *
+     * @return the client count
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Returns the counters of the server, with answered frames as processed and
+     * frames rejected as overloaded as dropped.
+     *
+     * @return the server counters
+     */
+    public StageCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Returns the number of frames that got an error response.
+     *
+     * @return the error count
+     */
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Stops accepting clients, disconnects the connected ones and stops the batcher.
+     */
+    @Override
+    public synchronized void close() {
+        ServerSocket socket = serverSocket;
+
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close the inference server port");
+            e.printStackTrace();
+        }
+
+        for (Socket client : clients) {
+            closeQuietly(client);
+        }
+
+        batcher.close();
+    }
+
+    /**
+     * Accepts clients and starts a reader thread for each one, until the server is closed.
+     */
+    private void acceptClients() {
+        while (true) {
+            Socket client;
+
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                // close() closed the server socket
+                return;
+            }
+
+            clients.add(client);
+
+            Thread reader = new Thread(() -> serveClient(client), "inference-server-client");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Reads the requests of one client and submits its frames until it disconnects.
+     *
+     * @param client the connected client
+     */
+    private void serveClient(Socket client) {
+        // Buffers reused for every request of this client; MicroBatcher copies the frame it queues
+        InferenceProtocol.FrameReader reader = new InferenceProtocol.FrameReader();
+        Mat frame = new Mat();
+        ResponseWriter writer = null;
+
+        try {
+            client.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+
+            // Predictions are written on the client's own thread, so a slow client never holds up the batcher or other clients
+            writer = new ResponseWriter(out);
+            Thread writerThread = new Thread(writer, "inference-server-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+
+            while (true) {
+                int id = in.readInt();
+                String invalid = reader.read(in, frame);
+
+                if (invalid != null) {
+                    errors.incrementAndGet();
+                    respondFailure(out, id, InferenceProtocol.STATUS_ERROR, invalid);
+                    continue;
+                }
+
+                // Reject the frame without queuing it if the server is already full
+                if (!admission.tryAcquire()) {
+                    counters.recordDropped();
+                    respondFailure(out, id, InferenceProtocol.STATUS_OVERLOADED, "The server is overloaded");
+                    continue;
+                }
+
+                CompletableFuture<Prediction> result;
+
+                try {
+                    result = batcher.submit(frame);
+                } catch (RuntimeException e) {
+                    admission.release();
+                    throw e;
+                }
+
+                writer.respondWhenDone(id, result);
+            }
+        } catch (EOFException | SocketException e) {
+            // The client disconnected or the server was closed
+        } catch (IOException e) {
+            System.err.println("Failed to serve an inference client");
+            e.printStackTrace();
+        } finally {
+            // Let the writer answer the frames still in flight, so their permits are released, then stop
+            if (writer != null) {
+                writer.finish();
+            }
+
+            frame.release();
+            clients.remove(client);
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * Writes the answers to one client's admitted frames, in the order they complete.
+     * Each frame keeps its admission permit until its answer has been written, so the
+     * permits bound the frames that are queued, running or waiting to be written, and
+     * with them the length of the response queue.
+     */
+    private final class ResponseWriter implements Runnable {
+
+        /** The client's output stream */
+        private final DataOutputStream out;
+
+        /** The answers of completed frames, waiting to be written */
+        private final BlockingQueue<Runnable> responses = new ArrayBlockingQueue<>(maxInFlight);
+
+        /** The admitted frames of this client whose answer has not been written yet */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /** Whether the client's reader thread is still reading requests */
+        private volatile boolean reading = true;
+
+        /**
+         * Constructs a ResponseWriter.
+         *
+         * @param out the client's output stream
+         */
+        private ResponseWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Queues the answer to an admitted frame for when its prediction completes.
+         * The completion only queues the answer, so the batcher's thread never writes to a socket.
+         *
+         * @param id the id of the request
+         * @param result the prediction of the request's frame
+         */
+        void respondWhenDone(int id, CompletableFuture<Prediction> result) {
+            pending.incrementAndGet();
+
+            result.whenComplete((prediction, error) -> responses.add(() -> {
+                try {
+                    if (error == null) {
+                        counters.recordProcessed();
+                        respondPrediction(out, id, prediction);
+                    }
+                    else {
+                        errors.incrementAndGet();
+                        respondFailure(out, id, InferenceProtocol.STATUS_ERROR, String.valueOf(error.getMessage()));
+                    }
+                } finally {
+                    // Only now is the frame done with; releasing earlier would let a slow client pile up answers
+                    admission.release();
+                    pending.decrementAndGet();
+                }
+            }));
+        }
+
+        /**
+         * Tells the writer that no more frames will be admitted for this client.
+         * The writer stops once the answers of the frames already in flight are written.
+         */
+        void finish() {
+            reading = false;
+        }
+
+        /**
+         * Writes answers until the client has stopped sending and every admitted frame is answered.
+         */
+        @Override
+        public void run() {
+            try {
+                while (reading || pending.get() > 0) {
+                    Runnable response = responses.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                    if (response != null) {
+                        response.run();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends a prediction to a client.
+     *
+     * @param out the client's output stream
+     * @param id the id of the request
+     * @param prediction the prediction of the request's frame
+     */
+    private static void respondPrediction(DataOutputStream out, int id, Prediction prediction) {
+        // The reader and writer threads of a client both respond, so each response is written whole
+        synchronized (out) {
+            try {
+                InferenceProtocol.writePrediction(out, id, prediction);
+                out.flush();
+            } catch (IOException e) {
+                // The client disconnected; its reader thread cleans up
+            }
+        }
+    }
+
+    /**
+     * Sends a response without a prediction to a client.
+     *
+     * @param out the client's output stream
+     * @param id the id of the request
+     * @param status the status of the response
+     * @param message why there is no prediction
+     */
+    private static void respondFailure(DataOutputStream out, int id, byte status, String message) {
+        synchronized (out) {
+            try {
+                InferenceProtocol.writeFailure(out, id, status, message);
+                out.flush();
+            } catch (IOException e) {
+                // The client disconnected; its reader thread cleans up
+            }
+        }
+    }
+
+    /**
+     * Closes a client connection, ignoring errors.
+     *
+     * @param client the connection to close
+     */
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // The connection is being discarded anyway
+        }
+    }
+
+    /**
+     * Loads the model and serves it until the process is stopped.
+     * Prints the server counters every few seconds.
+     *
+     * @param args optional port, largest batch size, batching window in milliseconds and frames in flight
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxBatchSize = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long windowMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        ModelManager model = ModelManager.loadAsync().join();
+        InferenceServer server = new InferenceServer(model, port, maxBatchSize, windowMillis, maxInFlight);
+
+        if (!server.start()) {
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            model.close();
+        }, "inference-server-shutdown"));
+        System.out.println("Inference server listening on port " + server.getPort());
+
+        while (true) {
+            TimeUnit.SECONDS.sleep(5);
+            System.out.println(server.getCounters() + " errors=" + server.getErrorCount()
+                + " inFlight=" + server.getInFlight() + " clients=" + server.getClientCount());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.codedotorg;
+
+import java.util.List;
+
+/**
+ * The class labels of a model, parsed once when the model loads.
+ * Teachable Machine writes each label as its class index followed by a space and
+ * the class name, such as "0 thumbsup". The table keeps both forms by class index,
+ * so code that reacts to predictions can look classes up by their name once and
+ * then compare class indexes instead of parsing and comparing label strings.
+ */
+public final class LabelTable {
+
+    /** The labels as written in labels.txt, by class index */
+    private final String[] labels;
+
+    /** The class names without the index prefix, by class index */
+    private final String[] names;
+
+    /**
+     * Constructs a LabelTable from the lines of labels.txt.
+     *
+     * @param labels the labels in class index order
+     */
+    public LabelTable(List<String> labels) {
+        this.labels = labels.toArray(new String[0]);
+        this.names = new String[this.labels.length];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = parseName(this.labels[i]);
+        }
+    }
+
+    /**
+     * Returns the number of classes.
+     *
+     * @return the class count
+     */
+    public int size() {
+        return labels.length;
+    }
+
+    /**
+     * Returns the label of a class as written in labels.txt.
+     *
+     * @param classIndex the index of the class
+     * @return the full label, such as "0 thumbsup"
+     */
+    public String getLabel(int classIndex) {
+        return labels[classIndex];
+    }
+
+    /**
+     * Returns the name of a class without its index prefix.
+     *
+     * @param classIndex the index of the class
+     * @return the class name, such as "thumbsup"
+     */
+    public String getName(int classIndex) {
+        return names[classIndex];
+    }
+
+    /**
+     * Returns the index of the class with the given name.
+     *
+     * @param name the class name without its index prefix
+     * @return the class index, or -1 if no class has that name
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Builds a lookup table from class index to a value, such as a game move.
+     * Classes whose name is not listed get the fallback value.
+     *
+     * @param names the class names to look for
+     * @param values the value of each name, in the same order
+     * @param fallback the value of every other class
+     * @return the value of each class, by class index
+     */
+    public int[] mapNames(String[] names, int[] values, int fallback) {
+        int[] table = new int[labels.length];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = fallback;
+
+            for (int j = 0; j < names.length; j++) {
+                if (this.names[i].equals(names[j])) {
+                    table[i] = values[j];
+                }
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Removes the "<index> " prefix Teachable Machine puts in front of each class name.
+     *
+     * @param label the label as written in labels.txt
+     * @return the class name, or the whole label if it has no index prefix
+     */
+    private static String parseName(String label) {
+        int space = label.indexOf(' ');
+
+        if (space <= 0) {
+            return label;
+        }
+
+        // Only strip the prefix if it is the class index, so names with spaces stay whole
+        for (int i = 0; i < space; i++) {
+            if (!Character.isDigit(label.charAt(i))) {
+                return label;
+            }
+        }
+
+        return label.substring(space + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", labels);
+    }
+}
@@ -0,0 +1,150 @@
+package com.codedotorg;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies in nanoseconds into log-linear buckets, in the style of HdrHistogram.
+ * Each power of two is split into 32 equal buckets, so any recorded value is
+ * reported within about 3% of its true value. Recording is lock-free and does
+ * not allocate, so it can be called on every frame from any thread.
+ */
+public final class LatencyHistogram {
+
+    /** The number of bits used for the buckets within one power of two */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /** Half the number of buckets in one power of two; the lower half overlaps the previous one */
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+
+    /** The number of powers of two a long value can span above the first bucket range */
+    private static final int EXPONENT_COUNT = 64 - SUB_BUCKET_BITS + 1;
+
+    /** The number of recorded values in each bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray((EXPONENT_COUNT + 1) * SUB_BUCKET_HALF);
+
+    /** The number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of every recorded value */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** The largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the recorded value count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : (double) sum.get() / recorded;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the maximum latency in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given share of recorded values fall.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long recorded = count.get();
+
+        if (recorded == 0) {
+            return 0;
+        }
+
+        // The rank of the value to report, counted from 1
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * recorded));
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank) {
+                // Report the highest value of the bucket, but never more than the real maximum
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Clears every recorded value.
+     * Values recorded while the reset runs may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Finds the bucket of a value.
+     * Values below 64 have a bucket each; above that, each power of two is split
+     * into 32 buckets of equal width.
+     *
+     * @param value a non-negative value
+     * @return the index of the bucket
+     */
+    static int bucketIndex(long value) {
+        // The number of low bits dropped so the value fits in SUB_BUCKET_BITS bits
+        int exponent = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+
+        // The value without its dropped bits, between 32 and 63 when exponent > 0
+        int subBucket = (int) (value >>> exponent);
+
+        return exponent * SUB_BUCKET_HALF + subBucket;
+    }
+
+    /**
+     * Returns the highest value that falls into a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the largest value in the bucket
+     */
+    static long highestValue(int index) {
+        int exponent = index < 2 * SUB_BUCKET_HALF ? 0 : index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - (long) exponent * SUB_BUCKET_HALF;
+
+        return ((subBucket + 1) << exponent) - 1;
+    }
+}
@@ -0,0 +1,108 @@
+package com.codedotorg;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A point-in-time summary of one LatencyHistogram, in milliseconds.
+ * JMX clients see it as a composite value with one item per getter.
+ */
+public final class LatencySummary {
+
+    /** The number of recorded values */
+    private final long count;
+
+    /** The mean latency in milliseconds */
+    private final double meanMillis;
+
+    /** The median latency in milliseconds */
+    private final double p50Millis;
+
+    /** The 99th percentile latency in milliseconds */
+    private final double p99Millis;
+
+    /** The largest latency in milliseconds */
+    private final double maxMillis;
+
+    /**
+     * Constructs a summary from already computed values.
+     *
+     * @param count the number of recorded values
+     * @param meanMillis the mean latency in milliseconds
+     * @param p50Millis the median latency in milliseconds
+     * @param p99Millis the 99th percentile latency in milliseconds
+     * @param maxMillis the largest latency in milliseconds
+     */
+    @ConstructorProperties({"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"})
+    public LatencySummary(long count, double meanMillis, double p50Millis, double p99Millis, double maxMillis) {
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Summarizes the current contents of a histogram.
+     *
+     * @param histogram the histogram to summarize
+     * @return the summary
+     */
+    static LatencySummary of(LatencyHistogram histogram) {
+        return new LatencySummary(histogram.getCount(),
+            histogram.getMean() / 1e6,
+            histogram.getPercentile(50) / 1e6,
+            histogram.getPercentile(99) / 1e6,
+            histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean latency in milliseconds.
+     *
+     * @return the mean latency in milliseconds
+     */
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    /**
+     * Returns the median latency in milliseconds.
+     *
+     * @return the median latency in milliseconds
+     */
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    /**
+     * Returns the 99th percentile latency in milliseconds.
+     *
+     * @return the 99th percentile latency in milliseconds
+     */
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    /**
+     * Returns the largest latency in milliseconds.
+     *
+     * @return the largest latency in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+            count, meanMillis, p50Millis, p99Millis, maxMillis);
+    }
+}
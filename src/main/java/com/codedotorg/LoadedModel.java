@@ -0,0 +1,298 @@
+package com.codedotorg;
+
+import org.tensorflow.Operation;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Session;
+import org.tensorflow.Shape;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One version of the model: its SavedModel bundle, session, labels and the
+ * preprocessor that sizes frames for its input. Keeping the preprocessor in the
+ * version means a prediction that acquired a version always preprocesses for
+ * that version's graph, even while a reload with a new input size swaps versions.
+ * ModelManager swaps versions when the model directory changes, so every
+ * prediction takes a reference to the version it runs on, and the bundle is
+ * only closed once the version has been replaced and its last prediction has
+ * released it. Closing it earlier would free the session and its tensors
+ * under a running prediction.
+ */
+final class LoadedModel {
+
+    /** Represents the TensorFlow model and its associated variables */
+    private final SavedModelBundle bundle;
+
+    /** Represents a TensorFlow session, which is used to run the model and make predictions */
+    private final Session session;
+
+    /** The class labels of the model, parsed once */
+    private final LabelTable labels;
+
+    /** The number of this version, counted from 1 by its ModelManager */
+    private final long version;
+
+    /** The image width declared by the model's input */
+    private final int inputWidth;
+
+    /** The image height declared by the model's input */
+    private final int inputHeight;
+
+    /** Crops, resizes and normalizes frames to this version's input */
+    private volatile Preprocessor preprocessor;
+
+    /** The predictions running on this version, plus one while it is the current version */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Constructs a LoadedModel from a loaded bundle and its labels.
+     * Reads the input size from the graph, falling back to 224x224 when it is unknown.
+     *
+     * @param bundle the loaded SavedModel
+     * @param labels the class labels of the model
+     * @param version the number of this version
+     */
+    LoadedModel(SavedModelBundle bundle, List<String> labels, long version) {
+        this.bundle = bundle;
+        this.session = bundle.session();
+        this.labels = new LabelTable(labels);
+        this.version = version;
+
+        int width = ModelManager.DEFAULT_INPUT_SIZE;
+        int height = ModelManager.DEFAULT_INPUT_SIZE;
+
+        // The input shape is [batch, height, width, channels], with -1 for unknown sizes
+        Operation input = bundle.graph().operation(ModelManager.INPUT_OPERATION);
+        Shape shape = input == null ? null : input.output(0).shape();
+
+        if (shape != null && shape.numDimensions() == 4) {
+            if (shape.size(1) > 0) {
+                height = (int) shape.size(1);
+            }
+
+            if (shape.size(2) > 0) {
+                width = (int) shape.size(2);
+            }
+        }
+
+        inputWidth = width;
+        inputHeight = height;
+        preprocessor = new Preprocessor(width, height);
+    }
+
+    /**
+     * Loads the SavedModel and labels of a model directory.
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     * @param sessionOptions the intra-op and inter-op thread counts of the session
+     * @param version the number to give the loaded version
+     * @return the loaded model, or null if the model or its labels failed to load
+     */
+    static LoadedModel load(String modelDirectory, SessionOptions sessionOptions, long version) {
+        return combine(loadBundle(modelDirectory, sessionOptions), loadLabels(modelDirectory), version);
+    }
+
+    /**
+     * Combines a bundle and labels that were loaded separately into one version.
+     * Closes the bundle if the labels are missing or do not name every class the model scores,
+     * as happens while a new export is still being copied into the model directory.
+     *
+     * @param bundle the loaded SavedModel, or null if it failed to load
+     * @param labels the class labels, or null if they failed to load
+     * @param version the number to give the loaded version
+     * @return the loaded model, or null if either part is missing or they do not match
+     */
+    static LoadedModel combine(SavedModelBundle bundle, List<String> labels, long version) {
+        if (bundle == null || labels == null || !labelsMatchOutput(bundle, labels)) {
+            if (bundle != null) {
+                bundle.close();
+            }
+
+            return null;
+        }
+
+        return new LoadedModel(bundle, labels, version);
+    }
+
+    /**
+     * Checks that the model scores as many classes as there are labels.
+     * Prints an error message to the console if the counts differ.
+     *
+     * @param bundle the loaded SavedModel
+     * @param labels the class labels
+     * @return true if the counts match or the model does not declare its class count
+     */
+    private static boolean labelsMatchOutput(SavedModelBundle bundle, List<String> labels) {
+        // The output shape is [batch, classes], with -1 for unknown sizes
+        Operation output = bundle.graph().operation(ModelManager.OUTPUT_OPERATION);
+        Shape shape = output == null ? null : output.output(0).shape();
+
+        if (shape == null || shape.numDimensions() != 2 || shape.size(1) < 0 || shape.size(1) == labels.size()) {
+            return true;
+        }
+
+        System.err.println("Failed to load the model: it scores " + shape.size(1) + " classes but "
+            + ModelManager.LABELS_FILE + " names " + labels.size());
+        return false;
+    }
+
+    /**
+     * Loads a saved model from the specified path and creates a session.
+     * Prints a message to the console if the model is loaded successfully.
+     * Prints an error message and stack trace to the console if the model fails to load.
+     *
+     * @param modelDirectory the directory containing the SavedModel
+     * @param sessionOptions the intra-op and inter-op thread counts of the session
+     * @return the loaded bundle, or null if it failed to load
+     */
+    static SavedModelBundle loadBundle(String modelDirectory, SessionOptions sessionOptions) {
+        try {
+            // Load the TensorFlow model from the model directory and creates a new SavedModelBundle object
+            // "serve" specifies the model signature name
+            SavedModelBundle.Loader loader = SavedModelBundle.loader(modelDirectory).withTags("serve");
+
+            // Pass the threading settings to the session, unless TensorFlow should choose them
+            if (!sessionOptions.isDefault()) {
+                loader = loader.withConfigProto(sessionOptions.toConfigProto());
+            }
+
+            SavedModelBundle bundle = loader.load();
+            System.out.println("Model loaded successfully");
+
+            return bundle;
+        } catch (Exception e) {
+            System.err.println("Failed to load the model");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads all the lines from the labels.txt file of the model directory.
+     * Prints a success message and the labels list if the operation is successful.
+     * Prints an error message and the stack trace if the operation fails.
+     *
+     * @param modelDirectory the directory containing labels.txt
+     * @return the labels, or null if they failed to load
+     */
+    static List<String> loadLabels(String modelDirectory) {
+        try {
+            // Read all the lines from the labels.txt file and returns them as a list of strings
+            // Paths.get() creates a Path object representing the path to the file containing the class labels
+            List<String> labels = Files.readAllLines(Paths.get(modelDirectory, ModelManager.LABELS_FILE));
+
+            System.out.println("Labels loaded successfully");
+            System.out.println(labels);
+
+            return labels;
+        } catch (IOException e) {
+            System.err.println("Failed to load the labels");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Takes a reference for one prediction, unless the version has already been closed.
+     *
+     * @return true if the version may be used until release() is called
+     */
+    boolean acquire() {
+        while (true) {
+            int count = references.get();
+
+            if (count == 0) {
+                return false;
+            }
+
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference, closing the bundle if it was the last one.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            bundle.close();
+            System.out.println("Model version " + version + " closed");
+        }
+    }
+
+    /**
+     * Gives back the reference held while this was the current version.
+     * The bundle closes as soon as the predictions still running on it have finished.
+     */
+    void retire() {
+        release();
+    }
+
+    /**
+     * Returns the session that runs the model.
+     *
+     * @return the TensorFlow session
+     */
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the class labels of the model.
+     *
+     * @return the label table
+     */
+    LabelTable getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the number of this version.
+     *
+     * @return the version, counted from 1 by its ModelManager
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the image width declared by the model's input.
+     *
+     * @return the input width in pixels
+     */
+    int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * Returns the image height declared by the model's input.
+     *
+     * @return the input height in pixels
+     */
+    int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * Returns the preprocessor that turns frames into this version's input.
+     *
+     * @return the preprocessor of this version
+     */
+    Preprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    /**
+     * Replaces the preprocessor of this version.
+     *
+     * @param preprocessor the preprocessor to use for the following frames
+     */
+    void setPreprocessor(Preprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+}
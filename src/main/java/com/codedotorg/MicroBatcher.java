@@ -0,0 +1,199 @@
+package com.codedotorg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+
+/**
+ * Groups frames submitted by several callers into shared model runs.
+ * The first frame that arrives opens a batch; the batch is run as soon as it
+ * holds maxBatchSize frames or the batching window has passed, whichever
+ * comes first. Each caller gets its own prediction back through a future.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+    /** A frame waiting to be batched and the future its prediction completes */
+    private static final class Request {
+        private final Mat frame;
+        private final CompletableFuture<Prediction> result = new CompletableFuture<>();
+
+        private Request(Mat frame) {
+            this.frame = frame;
+        }
+    }
+
+    /** The model shared by every caller */
+    private final ModelManager model;
+
+    /** The largest number of frames run together */
+    private final int maxBatchSize;
+
+    /** How long the first frame of a batch waits for more frames to arrive */
+    private final long windowNanos;
+
+    /** Frames waiting to be batched, in arrival order */
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /** The thread that forms batches and runs the model */
+    private final Thread worker;
+
+    /** Whether the batcher is still accepting frames */
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a MicroBatcher and starts its worker thread.
+     *
+     * @param model the model shared by every caller
+     * @param maxBatchSize the largest number of frames run together
+     * @param windowMillis how long the first frame of a batch waits for more frames
+     */
+    public MicroBatcher(ModelManager model, int maxBatchSize, long windowMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+
+        this.model = model;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+
+        worker = new Thread(this::runBatches, "micro-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a frame to be classified in the next batch.
+     * The frame is copied, so the caller may reuse or release it right away.
+     *
+     * @param frame the frame to classify
+     * @return a future completed with the frame's prediction
+     */
+    public CompletableFuture<Prediction> submit(Mat frame) {
+        Request request = new Request(frame.clone());
+
+        if (!running) {
+            request.frame.release();
+            request.result.completeExceptionally(new IllegalStateException("The batcher is closed"));
+            return request.result;
+        }
+
+        queue.add(request);
+
+        // If close() drained the queue before the frame was added, fail it here
+        if (!running && queue.remove(request)) {
+            fail(List.of(request), new IllegalStateException("The batcher is closed"));
+        }
+
+        return request.result;
+    }
+
+    /**
+     * Stops the worker thread and fails every frame that has not been run yet.
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Fail the frames that were queued after the last batch was taken
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending, new IllegalStateException("The batcher is closed"));
+    }
+
+    /**
+     * Forms batches from the queue and runs them until the batcher is closed.
+     */
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        List<Mat> frames = new ArrayList<>(maxBatchSize);
+
+        while (running) {
+            try {
+                // Wait for the first frame of the next batch
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+
+                // Keep adding frames until the batch is full or the window has passed
+                long deadline = System.nanoTime() + windowNanos;
+
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts the worker; the frames already taken are failed below
+                fail(batch, new IllegalStateException("The batcher is closed"));
+                batch.clear();
+                break;
+            }
+
+            runBatch(batch, frames);
+            batch.clear();
+            frames.clear();
+        }
+    }
+
+    /**
+     * Runs the model once on a batch and completes the future of every frame in it.
+     *
+     * @param batch the requests to run
+     * @param frames a reusable list for the frames of the batch
+     */
+    private void runBatch(List<Request> batch, List<Mat> frames) {
+        for (Request request : batch) {
+            frames.add(request.frame);
+        }
+
+        try {
+            List<Prediction> predictions = model.predictBatch(frames);
+
+            if (predictions == null) {
+                fail(batch, new IllegalStateException("Failed to run the model on the batch"));
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(predictions.get(i));
+                batch.get(i).frame.release();
+            }
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Fails the future of every request and releases their frames.
+     *
+     * @param requests the requests to fail
+     * @param cause the error to report
+     */
+    private static void fail(List<Request> requests, Throwable cause) {
+        for (Request request : requests) {
+            request.result.completeExceptionally(cause);
+            request.frame.release();
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package com.codedotorg;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.CompletableFuture;
+
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 public class ModelDemo {
 
@@ -27,16 +27,20 @@ public class ModelDemo {
     /** Manages the TensorFlow model used for image classification */
     private ModelManager model;
 
+    /** Completes when the model has been loaded and warmed up in the background */
+    private CompletableFuture<ModelManager> modelReady;
+
     /** Controls the camera capture and provides frames to the TensorFlow model for classification */
     private CameraController cameraController;
 
     /**
      * Constructor for the ModelDemo class.
-     * Initializes the camera controller, model manager, image view, prediction label, and exit button.
+     * Initializes the camera controller, image view, prediction label, and exit button,
+     * and starts loading the model manager in the background.
      */
     public ModelDemo() {
         cameraController = new CameraController();
-        model = new ModelManager();
+        modelReady = ModelManager.loadAsync();
         cameraView = new ImageView();
         predictionLabel = getPredictionLabel();
         exitButton = new Button("Exit");
@@ -86,8 +90,11 @@ public class ModelDemo {
         window.setScene(mainScene);
         window.show();
 
-        // Start capturing the webcam
-        cameraController.captureCamera(cameraView, model);
+        // Start capturing the webcam once the model has loaded in the background
+        modelReady.thenAccept(loaded -> Platform.runLater(() -> {
+            model = loaded;
+            cameraController.captureCamera(cameraView, model);
+        }));
 
         // Update the prediction label
         updatePredictionLabel();
@@ -119,23 +126,13 @@ public class ModelDemo {
     }
 
     /**
-     * Updates the prediction label with the predicted class and score from the camera controller.
-     * Uses a timeline to update the label every second.
+     * Updates the prediction label with the predicted class and score as soon as the
+     * camera controller publishes a new prediction. Predictions that arrive while the
+     * label is waiting to be redrawn are coalesced, so only the latest one is shown.
      */
     private void updatePredictionLabel() {
-        // Timeline is part of the JavaFX library to provide a way to create animations and other time-based events.
-        // KeyFrame is used to define a single frame of an animation.
-        // Duration.seconds(1) specifies that this should be executed every 1 second.
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
-            // Sets the text of the predictionLabel to the predicted class label and score from the CameraController every second
-            predictionLabel.setText(cameraController.getPredictedClass() + " - " + cameraController.getPredictedScore());
-        }));
-        
-        // Specify that the animation should repeat indefinitely
-        timeline.setCycleCount(Timeline.INDEFINITE);
-
-        // Start the animation
-        timeline.play();
+        cameraController.getPredictionPublisher().subscribe(new FxCoalescingSubscriber<Prediction>(prediction ->
+            predictionLabel.setText(prediction.getLabel() + " - " + prediction.getScore())));
     }
 
 }
@@ -1,208 +1,901 @@
 package com.codedotorg;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
 import org.tensorflow.Session;
 import org.tensorflow.Tensor;
 import org.tensorflow.SavedModelBundle;
 
-import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class ModelManager {
+public class ModelManager implements AutoCloseable {
     
-    /** The path to the directory containing the model */
-    private static final String MODEL_PATH = "src\\main\\java\\com\\codedotorg\\model\\";
+    /** The name of the labels file (should be in the root of the model directory) */
+    static final String LABELS_FILE = "labels.txt";
 
-    /** The path to the labels.txt file (should be in the root of the model directory) */
-    private static final String LABELS_PATH = MODEL_PATH + "labels.txt";
+    /** The name of the operation that receives the input images */
+    static final String INPUT_OPERATION = "serving_default_sequential_1_input";
 
-    /** Represents the TensorFlow model and its associated variables */
-    private SavedModelBundle bundle;
+    /** The name of the operation that produces the softmax scores */
+    static final String OUTPUT_OPERATION = "StatefulPartitionedCall";
 
-    /** Represents a TensorFlow session, which is used to run the model and make predictions */
-    private Session session;
+    /** The name of the output that holds the softmax scores */
+    private static final String OUTPUT_NAME = OUTPUT_OPERATION + ":0";
 
-    /** The list of class labels for the model */
-    private List<String> labels;
+    /** The system property naming a deployed model directory that is loaded and watched instead of the bundled model */
+    public static final String MODEL_DIRECTORY_PROPERTY = "tmexample.model.dir";
+
+    /** The input size used when the model does not declare one (Teachable Machine exports 224x224) */
+    static final int DEFAULT_INPUT_SIZE = 224;
+
+    /** The number of inferences run on a blank frame before the model is reported ready */
+    private static final int WARM_UP_RUNS = 3;
+
+    /** Numbers the metrics of each ModelManager so their JMX names do not clash */
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    /** The directory containing the model and its labels.txt file */
+    private final String modelDirectory;
+
+    /** The TensorFlow threading settings of the session */
+    private final SessionOptions sessionOptions;
+
+    /** The bundle, session and labels used for new predictions, or null if the model failed to load */
+    private final AtomicReference<LoadedModel> current = new AtomicReference<>();
+
+    /** The version number given to the next loaded model */
+    private final AtomicLong nextVersion = new AtomicLong(1);
+
+    /** Makes reloads wait for each other so two changes to the model directory are not loaded at once */
+    private final Object reloadLock = new Object();
+
+    /** Whether close() was called, after which reloads are refused */
+    private boolean closed;
+
+    /** Reuses predictions for frames that look like a recent one, or null to always run the model */
+    private volatile PredictionCache predictionCache;
+
+    /** Turns frames the model is unsure about into unknown predictions, or null to always name the best class */
+    private volatile PredictionFilter predictionFilter;
+
+    /** The reusable Mats, input and softmax arrays of each thread that runs the model */
+    private final ThreadLocal<InferenceBuffers> buffers = ThreadLocal.withInitial(InferenceBuffers::new);
+
+    /** The latency of the preprocessing, session run and postprocessing stages, and the inference errors */
+    private final PipelineMetrics metrics = new PipelineMetrics("model-" + INSTANCE_COUNT.incrementAndGet());
 
     /**
-     * Constructs a new ModelManager object.
-     * Initializes the bundle to null, loads the model, and loads the labels.
+     * Constructs a new ModelManager object for the model bundled with the app.
+     * The model is extracted from the classpath into the on-disk cache on the first start.
+     * Loads the model and its labels, and sets up the preprocessor for the model's declared input size.
      */
     public ModelManager() {
-        bundle = null;
-        loadModel();
-        loadLabels();
+        this(ModelResources.extract());
+    }
+
+    /**
+     * Constructs a new ModelManager object for the model in the given directory.
+     * Loads the model and its labels, and sets up the preprocessor for the model's declared input size.
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     */
+    public ModelManager(String modelDirectory) {
+        this(modelDirectory, SessionOptions.DEFAULT);
     }
 
     /**
-     * Loads a saved model from the specified path and creates a session.
-     * Prints a message to the console if the model is loaded successfully.
-     * Prints an error message and stack trace to the console if the model fails to load.
+     * Constructs a new ModelManager object for the model in the given directory,
+     * with the given TensorFlow threading settings.
+     * Loads the model and its labels, and sets up the preprocessor for the model's declared input size.
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     * @param sessionOptions the intra-op and inter-op thread counts of the session
      */
-    public void loadModel() {
+    public ModelManager(String modelDirectory, SessionOptions sessionOptions) {
+        this.modelDirectory = modelDirectory;
+        this.sessionOptions = sessionOptions;
+        current.set(StartupTimeline.time("model load",
+            () -> LoadedModel.load(modelDirectory, sessionOptions, nextVersion.getAndIncrement())));
+        metrics.registerMBean();
+    }
+
+    /**
+     * Constructs a ModelManager that has not loaded anything yet, for loadAsync().
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     * @param sessionOptions the intra-op and inter-op thread counts of the session
+     * @param unused distinguishes this constructor from the loading one
+     */
+    private ModelManager(String modelDirectory, SessionOptions sessionOptions, boolean unused) {
+        this.modelDirectory = modelDirectory;
+        this.sessionOptions = sessionOptions;
+    }
+
+    /**
+     * Loads the model bundled with the app in the background.
+     * OpenCV starts loading while the model is extracted from the classpath,
+     * which only copies files on the first start.
+     *
+     * If the app is started with -Dtmexample.model.dir=DIRECTORY, the model in that directory
+     * is loaded instead and a ModelWatcher reloads it whenever a retrained export is copied
+     * over it, so deploying a new model does not need a restart.
+     *
+     * @return a future that completes with the warmed-up ModelManager
+     * @see #loadAsync(String)
+     */
+    public static CompletableFuture<ModelManager> loadAsync() {
+        String deployedDirectory = System.getProperty(MODEL_DIRECTORY_PROPERTY);
+
+        if (deployedDirectory != null) {
+            return loadAsync(deployedDirectory).thenApply(model -> {
+                // The watcher's daemon thread keeps it running for the life of the app
+                new ModelWatcher(model).start();
+                return model;
+            });
+        }
+
+        OpenCvLoader.load();
+        return CompletableFuture.supplyAsync(ModelResources::extract).thenCompose(ModelManager::loadAsync);
+    }
+
+    /**
+     * Loads a model in the background without blocking the calling thread.
+     * The OpenCV natives, the SavedModel and the labels are loaded in parallel.
+     * Once all three are ready, a few inferences run on a blank frame so the first
+     * real frame does not pay for graph initialization and JIT compilation.
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     * @return a future that completes with the warmed-up ModelManager
+     */
+    public static CompletableFuture<ModelManager> loadAsync(String modelDirectory) {
+        return loadAsync(modelDirectory, SessionOptions.DEFAULT);
+    }
+
+    /**
+     * Loads a model in the background with the given TensorFlow threading settings.
+     *
+     * @param modelDirectory the directory containing the SavedModel and labels.txt
+     * @param sessionOptions the intra-op and inter-op thread counts of the session
+     * @return a future that completes with the warmed-up ModelManager
+     * @see #loadAsync(String)
+     */
+    public static CompletableFuture<ModelManager> loadAsync(String modelDirectory, SessionOptions sessionOptions) {
+        ModelManager model = new ModelManager(modelDirectory, sessionOptions, false);
+        long version = model.nextVersion.getAndIncrement();
+
+        // Start the three independent loading steps at the same time
+        CompletableFuture<Void> natives = OpenCvLoader.load();
+        CompletableFuture<SavedModelBundle> graph = CompletableFuture.supplyAsync(() ->
+            StartupTimeline.time("model graph", () -> LoadedModel.loadBundle(modelDirectory, sessionOptions)));
+        CompletableFuture<List<String>> labels = CompletableFuture.supplyAsync(() ->
+            StartupTimeline.time("labels", () -> LoadedModel.loadLabels(modelDirectory)));
+
+        return CompletableFuture.allOf(natives, graph, labels).thenApplyAsync(ready -> {
+            model.current.set(LoadedModel.combine(graph.join(), labels.join(), version));
+            model.metrics.registerMBean();
+            StartupTimeline.time("warm-up", () -> model.warmUp(WARM_UP_RUNS));
+            return model;
+        });
+    }
+
+    /**
+     * Runs the model on a blank frame of its input size so that TensorFlow initializes
+     * the graph and the JIT compiles the hot paths before the first real frame.
+     * The warm-up runs are not included in the metrics.
+     * Requires the OpenCV natives to be loaded.
+     *
+     * @param runs the number of inferences to run
+     */
+    public void warmUp(int runs) {
+        LoadedModel loaded = acquireModel();
+
+        if (loaded == null) {
+            return;
+        }
+
         try {
-            // Load the TensorFlow model from the MODEL_PATH directory and creates a new SavedModelBundle object
-            // "serve" specifies the model signature name
-            bundle = SavedModelBundle.load(MODEL_PATH, "serve");
+            if (!warmUp(loaded, loaded.getPreprocessor(), runs)) {
+                System.err.println("Failed to warm up the model");
+            }
+        } finally {
+            loaded.release();
+        }
+    }
 
-            // Sets the session to a new Session object to run the TensorFlow model and make predictions
-            session = bundle.session();
-            System.out.println("Model loaded successfully");
-        } catch (Exception e) {
-            System.err.println("Failed to load the model");
-            e.printStackTrace();
+    /**
+     * Loads the model directory again and swaps the new version in once it has been warmed up.
+     * Runs on the calling thread, which should not be the JavaFX thread. Predictions keep
+     * running on the previous version while the new one loads, and the previous version is
+     * closed as soon as the last prediction using it has finished, so no frame waits for the
+     * reload and no session is closed under a running prediction. The prediction cache is
+     * cleared, since its predictions came from the previous version.
+     *
+     * @return true if the new version is now used, false if it failed to load or run and the previous version stays
+     */
+    public boolean reload() {
+        synchronized (reloadLock) {
+            if (closed) {
+                return false;
+            }
+
+            LoadedModel next = LoadedModel.load(modelDirectory, sessionOptions, nextVersion.getAndIncrement());
+
+            if (next == null) {
+                System.err.println("Failed to reload the model, keeping the previous version");
+                return false;
+            }
+
+            // Keep the crop and normalization that were set, unless the input size changed
+            // The preprocessor travels with the version, so a prediction never pairs it with the other graph
+            Preprocessor previousPreprocessor = getPreprocessor();
+
+            if (previousPreprocessor.getWidth() == next.getInputWidth() && previousPreprocessor.getHeight() == next.getInputHeight()) {
+                next.setPreprocessor(previousPreprocessor);
+            }
+
+            // Initialize the new graph before any real frame reaches it, and keep the previous version if it cannot run
+            boolean ready = false;
+
+            try {
+                ready = warmUp(next, next.getPreprocessor(), WARM_UP_RUNS);
+            } finally {
+                // Close the new version's bundle even if the warm-up threw
+                if (!ready) {
+                    next.retire();
+                }
+            }
+
+            if (!ready) {
+                System.err.println("Failed to run the reloaded model, keeping the previous version");
+                return false;
+            }
+
+            // Swap the new version in and retire the previous one
+            LoadedModel previous = current.getAndSet(next);
+
+            PredictionCache cache = predictionCache;
+
+            if (cache != null) {
+                cache.clear();
+            }
+
+            if (previous != null) {
+                previous.retire();
+            }
+
+            System.out.println("Model version " + next.getVersion() + " is now in use");
+            return true;
         }
     }
 
     /**
-     * Reads all the lines from the file specified by LABELS_PATH and stores them in the labels list.
-     * Prints a success message and the labels list if the operation is successful.
-     * Prints an error message and the stack trace if the operation fails.
+     * Closes the current model version once the predictions running on it have finished,
+     * and removes the metrics from the platform MBean server so they are not kept alive
+     * after the ModelManager is gone. Later predictions return null and reloads are refused.
      */
-    public void loadLabels() {
+    @Override
+    public void close() {
+        synchronized (reloadLock) {
+            closed = true;
+
+            LoadedModel previous = current.getAndSet(null);
+
+            if (previous != null) {
+                previous.retire();
+            }
+        }
+
+        metrics.unregisterMBean();
+    }
+
+    /**
+     * Returns how long the model took for the last predict() or predictInto() call of the calling thread,
+     * from preprocessing to the extracted scores. Frames answered from the prediction cache did not run
+     * the model, so rate controllers should only budget for the calls where this is not 0.
+     *
+     * @return the run time in nanoseconds, or 0 if the last call was a cache hit or failed
+     */
+    public long getLastRunNanos() {
+        return buffers.get().runNanos();
+    }
+
+    /**
+     * Returns the version of the model used for new predictions.
+     *
+     * @return the version, counted from 1, or 0 if no model is loaded
+     */
+    public long getModelVersion() {
+        LoadedModel loaded = current.get();
+        return loaded == null ? 0 : loaded.getVersion();
+    }
+
+    /**
+     * Returns the directory the model and its labels are loaded from.
+     *
+     * @return the model directory
+     */
+    public String getModelDirectory() {
+        return modelDirectory;
+    }
+
+    /**
+     * Returns whether the model and its labels were loaded and can make predictions.
+     *
+     * @return true if predictions can be made
+     */
+    public boolean isModelLoaded() {
+        return current.get() != null;
+    }
+
+    /**
+     * Returns the class labels of the current model version, parsed once when it loaded.
+     * A reload can change the labels, so callers that build lookup tables from them
+     * should rebuild the tables when this returns a different table.
+     *
+     * @return the label table, or null if no model is loaded
+     */
+    public LabelTable getLabelTable() {
+        LoadedModel loaded = current.get();
+        return loaded == null ? null : loaded.getLabels();
+    }
+
+    /**
+     * Returns the metrics of the preprocessing, session run and postprocessing stages.
+     *
+     * @return the model's pipeline metrics
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the cache predict() consults before running the model.
+     *
+     * @return the prediction cache, or null if every frame runs the model
+     */
+    public PredictionCache getPredictionCache() {
+        return predictionCache;
+    }
+
+    /**
+     * Sets a cache that lets predict() skip the model for frames that look like a recent one.
+     * predictInto() and predictBatch() always run the model.
+     *
+     * @param predictionCache the cache to use, or null to always run the model
+     */
+    public void setPredictionCache(PredictionCache predictionCache) {
+        this.predictionCache = predictionCache;
+    }
+
+    /**
+     * Returns the filter that decides whether the model is sure enough to name a class.
+     *
+     * @return the prediction filter, or null if the best class is always named
+     */
+    public PredictionFilter getPredictionFilter() {
+        return predictionFilter;
+    }
+
+    /**
+     * Sets a filter that makes predict() and predictBatch() return unknown predictions for
+     * frames where the best class scores too low or barely leads the runner-up.
+     * predictInto() always returns the best class. The prediction cache is cleared,
+     * since its predictions were filtered with the previous settings.
+     *
+     * @param predictionFilter the filter to use, or null to always name the best class
+     */
+    public void setPredictionFilter(PredictionFilter predictionFilter) {
+        this.predictionFilter = predictionFilter;
+
+        PredictionCache cache = predictionCache;
+
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the preprocessor used to turn frames into model input.
+     *
+     * @return the preprocessor of the current model version, or a 224x224 one if no model is loaded
+     */
+    public Preprocessor getPreprocessor() {
+        LoadedModel loaded = current.get();
+        return loaded == null ? new Preprocessor(DEFAULT_INPUT_SIZE, DEFAULT_INPUT_SIZE) : loaded.getPreprocessor();
+    }
+
+    /**
+     * Replaces the preprocessor, for example to crop a fixed region of interest.
+     * Frames that are already being processed finish with the previous settings.
+     * The preprocessor belongs to the current model version; a reload keeps it
+     * unless the new version declares a different input size. Does nothing if
+     * no model is loaded.
+     *
+     * @param preprocessor the preprocessor to use for the following frames
+     */
+    public void setPreprocessor(Preprocessor preprocessor) {
+        // Wait for a running reload, so the setting is not applied to the version it is replacing
+        synchronized (reloadLock) {
+            LoadedModel loaded = current.get();
+
+            if (loaded != null) {
+                loaded.setPreprocessor(preprocessor);
+            }
+        }
+    }
+
+    /**
+     * Takes a reference to the current model version for one prediction.
+     * The caller must release it once the prediction's tensors have been closed.
+     *
+     * @return the current version, or null if no model is loaded
+     */
+    private LoadedModel acquireModel() {
+        while (true) {
+            LoadedModel loaded = current.get();
+
+            // A version can only fail to be acquired after it was replaced, so read the replacement
+            if (loaded == null || loaded.acquire()) {
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * Runs a version of the model on a blank frame without recording the runs in the metrics.
+     * Stops at the first run that fails, since a version that cannot run once will not run on real frames.
+     *
+     * @param loaded the version to warm up
+     * @param warmUpPreprocessor the preprocessor matching the version's input size
+     * @param runs the number of inferences to run
+     * @return true if every run succeeded, false if the model could not be run
+     */
+    private boolean warmUp(LoadedModel loaded, Preprocessor warmUpPreprocessor, int runs) {
+        Mat blank = new Mat(warmUpPreprocessor.getHeight(), warmUpPreprocessor.getWidth(), CvType.CV_8UC3, Scalar.all(0));
+        float[] scores = new float[loaded.getLabels().size()];
+
+        // Record into metrics nobody reads, so the live metrics only show real frames
+        PipelineMetrics warmUpMetrics = new PipelineMetrics("warm-up");
+
         try {
-            // Read all the lines from the labels.txt file and returns them as a list of strings
-            // Paths.get() creates a Path object representing the path to the file containing the class labels
-            labels = Files.readAllLines(Paths.get(LABELS_PATH));
-            
-            System.out.println("Labels loaded successfully");
-            System.out.println(labels);
-        } catch (IOException e) {
-            System.err.println("Failed to load the labels");
-            e.printStackTrace();
+            for (int i = 0; i < runs; i++) {
+                if (runModel(loaded, warmUpPreprocessor, blank, scores, warmUpMetrics) < 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        } finally {
+            blank.release();
         }
     }
 
     /**
-     * Predicts the class of a given frame using the loaded TensorFlow model.
+     * Runs the loaded TensorFlow model once on a given frame and returns the full result.
+     *
+     * When a prediction cache is set, a frame that looks like a recent one gets that
+     * frame's prediction back without running the model.
      *
      * @param frame The input frame to predict the class for.
-     * @return The predicted class as a string.
+     * @return The prediction holding the top label, its index, its score and the softmax vector,
+     *         or null if the model could not be run.
      */
-    public String predictClass(Mat frame) {
-        // Convert the image frame to a byte array
-        byte[] bytesFromFrame = convertFrameToBytes(frame);
+    public Prediction predict(Mat frame) {
+        // Forget the previous run, so a cache hit or a failure reports that the model did not run
+        buffers.get().setRunNanos(0);
 
-        // Normalize the pixel values of the image and return a float array
-        float[] normalizedPixels = normalizeImage(bytesFromFrame);
+        // Return the prediction of a recent, nearly identical frame if there is one
+        // Frames the cache cannot hash, such as 16-bit or float frames, always run the model
+        PredictionCache cache = predictionCache;
+        long hash = 0;
 
-        // Create a list of Tensor objects representing the input to the TensorFlow model
-        Tensor<Float> inputTensor = createInputTensor(frame, bytesFromFrame, normalizedPixels);
+        if (cache != null && !PredictionCache.canHash(frame)) {
+            cache = null;
+        }
 
-        // Create a list of Tensor objects representing the output of the TensorFlow model
-        List<Tensor<?>> outputTensors = createOutputTensors(inputTensor);
+        if (cache != null) {
+            hash = cache.hash(frame);
+            Prediction cached = cache.lookup(hash);
+
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Hold on to the current version so a reload cannot close it during this prediction
+        LoadedModel loaded = acquireModel();
+
+        if (loaded == null) {
+            metrics.recordError();
+            return null;
+        }
 
-        // Run the TensorFlow model and make a prediction
-        return predictClassAndRelease(inputTensor, outputTensors);
+        try {
+            LabelTable labels = loaded.getLabels();
+
+            PredictionFilter filter = predictionFilter;
+
+            // Reuse this thread's softmax array as the destination of the scores
+            float[] scores = buffers.get().scores(labels.size());
+
+            // Run the TensorFlow model and find the most likely class
+            int classIndex = runModel(loaded, loaded.getPreprocessor(), frame, scores, metrics);
+
+            if (classIndex < 0) {
+                return null;
+            }
+
+            // Copy the label, index and scores into an immutable prediction
+            Prediction prediction = createPrediction(labels, filter, classIndex, scores, 0, labels.size());
+
+            // Only cache predictions of the current version and filter; a reload or a new filter clears the older ones
+            if (cache != null && current.get() == loaded && predictionFilter == filter) {
+                cache.store(hash, prediction);
+
+                // A new filter set while storing may have cleared the cache before this prediction reached it
+                if (predictionFilter != filter) {
+                    cache.clear();
+                }
+            }
+
+            return prediction;
+        } finally {
+            loaded.release();
+        }
     }
 
-    public float predictScore(Mat frame) {
-        // Convert the image frame to a byte array
-        byte[] bytesFromFrame = convertFrameToBytes(frame);
+    /**
+     * Runs the loaded TensorFlow model once on a given frame and writes the softmax scores
+     * into an array owned by the caller. The pixel, input and output arrays are reused
+     * between calls on the same thread, so after the first frame of a given size this path
+     * does not allocate any arrays of its own.
+     *
+     * @param frame The input frame to predict the class for.
+     * @param scores The array to receive one softmax score per class, at least as long as
+     *               the current version's label table; a reload can add classes.
+     * @return The index of the predicted class, or -1 if the model could not be run
+     *         or the array is too short for the current version.
+     */
+    public int predictInto(Mat frame, float[] scores) {
+        // Forget the previous run, so a failure reports that the model did not run
+        buffers.get().setRunNanos(0);
+
+        // Hold on to the current version so a reload cannot close it during this prediction
+        LoadedModel loaded = acquireModel();
+
+        if (loaded == null) {
+            metrics.recordError();
+            return -1;
+        }
 
-        // Normalize the pixel values of the image and return a float array
-        float[] normalizedPixels = normalizeImage(bytesFromFrame);
+        try {
+            // A caller sized for an older version would overflow its array when the scores are copied out
+            int classes = loaded.getLabels().size();
+
+            if (scores.length < classes) {
+                System.err.println("Failed to predict: the scores array holds " + scores.length
+                    + " classes, model version " + loaded.getVersion() + " scores " + classes);
+                metrics.recordError();
+                return -1;
+            }
+
+            return runModel(loaded, loaded.getPreprocessor(), frame, scores, metrics);
+        } finally {
+            loaded.release();
+        }
+    }
+
+    /**
+     * Runs one version of the model once on a frame and writes the softmax scores into the caller's array.
+     *
+     * @param loaded the version to run, acquired by the caller
+     * @param framePreprocessor the preprocessor matching the version's input size
+     * @param frame the input frame to predict the class for
+     * @param scores the array to receive one softmax score per class
+     * @param target the metrics to record the stage latencies and errors in
+     * @return the index of the predicted class, or -1 if the model could not be run
+     */
+    private int runModel(LoadedModel loaded, Preprocessor framePreprocessor, Mat frame, float[] scores,
+            PipelineMetrics target) {
+        // Get the reusable Mats and arrays that belong to the current thread
+        InferenceBuffers threadBuffers = buffers.get();
+        long start = System.nanoTime();
 
-        // Create a list of Tensor objects representing the input to the TensorFlow model
-        Tensor<Float> inputTensor = createInputTensor(frame, bytesFromFrame, normalizedPixels);
+        // Crop, resize, convert to RGB and normalize the frame in native code
+        Mat image = framePreprocessor.process(frame, threadBuffers);
+
+        // Copy the normalized pixel values into the reusable float array
+        copyImageToInput(image, threadBuffers);
+
+        // Create a Tensor object representing the input to the TensorFlow model
+        Tensor<Float> inputTensor = createInputTensor(image, 1, threadBuffers);
+
+        if (inputTensor == null) {
+            target.recordError();
+            return -1;
+        }
+
+        long preprocessed = System.nanoTime();
+        target.recordLatency(PipelineMetrics.Stage.PREPROCESS, preprocessed - start);
 
         // Create a list of Tensor objects representing the output of the TensorFlow model
-        List<Tensor<?>> outputTensors = createOutputTensors(inputTensor);
+        List<Tensor<?>> outputTensors = createOutputTensors(loaded.getSession(), inputTensor);
+
+        long ran = System.nanoTime();
+        target.recordLatency(PipelineMetrics.Stage.SESSION_RUN, ran - preprocessed);
+
+        // Copy the scores out of the output, release the tensors and find the most likely class
+        int classIndex = predictAndRelease(inputTensor, outputTensors, loaded.getLabels().size(), threadBuffers, scores);
+
+        if (classIndex < 0) {
+            target.recordError();
+            return -1;
+        }
+
+        long finished = System.nanoTime();
+        target.recordLatency(PipelineMetrics.Stage.POSTPROCESS, finished - ran);
+        target.recordFrame();
+        threadBuffers.setRunNanos(finished - start);
 
-        // Run the TensorFlow model and make a prediction
-        return predictScoreAndRelease(inputTensor, outputTensors);
+        return classIndex;
     }
 
     /**
-     * Converts a given OpenCV Mat frame to a byte array.
-     * 
-     * @param frame the OpenCV Mat frame to be converted
-     * @return the byte array representation of the given frame
+     * Runs the loaded TensorFlow model once on several frames.
+     * Every frame is preprocessed to the model's input size and packed into a single
+     * [N, height, width, channels] tensor, and the softmax rows of the output are
+     * split back into one prediction per frame.
+     *
+     * @param frames The input frames, which may have different sizes.
+     * @return One prediction per frame in the same order, or null if the model could not be run.
      */
-    private byte[] convertFrameToBytes(Mat frame) {
-        // Create a byte array containing the total number of elements in the frame times the number of channels
-        byte[] bytes = new byte[(int) (frame.total() * frame.channels())];
+    public List<Prediction> predictBatch(List<Mat> frames) {
+        // The number of frames packed into the tensor
+        int batchSize = frames.size();
+
+        if (batchSize == 0) {
+            return new ArrayList<>();
+        }
+
+        // Hold on to the current version so a reload cannot close it during this batch
+        LoadedModel loaded = acquireModel();
 
-        // Copy the pixel values from the frame to a byte array
-        frame.get(0, 0, bytes);
+        if (loaded == null) {
+            metrics.recordError();
+            return null;
+        }
 
-        // Return the byte array
-        return bytes;
+        try {
+            return runBatch(loaded, frames);
+        } finally {
+            loaded.release();
+        }
     }
 
     /**
-     * Normalizes an image represented as a byte array to a float array with pixel values in the range [0, 1].
+     * Runs one version of the model once on several frames.
      *
-     * @param bytes the byte array representing the image
-     * @return a float array with pixel values normalized to [0, 1]
+     * @param loaded the version to run, acquired by the caller
+     * @param frames the input frames, at least one
+     * @return one prediction per frame in the same order, or null if the model could not be run
      */
-    private float[] normalizeImage(byte[] bytes) {
-        // Create a float array that is the same length as the input byte array
-        float[] floatArray = new float[bytes.length];
+    private List<Prediction> runBatch(LoadedModel loaded, List<Mat> frames) {
+        // The number of frames packed into the tensor
+        int batchSize = frames.size();
+
+        // Get the reusable Mats and arrays that belong to the current thread
+        InferenceBuffers threadBuffers = buffers.get();
+        long start = System.nanoTime();
+
+        // Use the same settings for every frame of the batch, even if they are replaced meanwhile
+        Preprocessor batchPreprocessor = loaded.getPreprocessor();
+
+        float[] batchInput = null;
+        int sampleLength = 0;
+        int height = 0;
+        int width = 0;
+        int channels = 0;
+
+        for (int i = 0; i < batchSize; i++) {
+            // Crop, resize, convert to RGB and normalize the frame in native code
+            Mat image = batchPreprocessor.process(frames.get(i), threadBuffers);
+
+            // Copy the normalized pixel values out of the image
+            float[] sample = threadBuffers.sample((int) (image.total() * image.channels()));
+            image.get(0, 0, sample);
+
+            // Size the batch array and the tensor shape from the first image
+            if (batchInput == null) {
+                sampleLength = sample.length;
+                height = image.height();
+                width = image.width();
+                channels = image.channels();
+                batchInput = threadBuffers.input(sampleLength * batchSize);
+            }
+
+            // Every image must fill exactly one slot, or its pixels would spill into or miss part of it
+            if (sample.length != sampleLength) {
+                System.err.println("Failed to batch frame " + i + ": it preprocessed to " + sample.length
+                    + " values, expected " + sampleLength);
+                metrics.recordError();
+                return null;
+            }
+
+            // Place the image at its position in the batch
+            System.arraycopy(sample, 0, batchInput, i * sampleLength, sampleLength);
+        }
 
-        for (int i = 0; i < bytes.length; i++) {
-            // Normalize pixel values to the range [0, 1] by converting the byte value to an integer
-            // using a bitwise AND operation with 0xff, which sets the most significant bits of the
-            // integer to 0. The resulting integer is then divided by 255.0f to normalize its value
-            // to the range [0, 1]. The normalized value is then stored in the float array.
-            floatArray[i] = (bytes[i] & 0xff) / 255.0f;  // normalize pixel values to [0, 1]
+        // Create a Tensor object holding every image of the batch
+        Tensor<Float> inputTensor = createInputTensor(batchSize, height, width, channels, threadBuffers);
+
+        if (inputTensor == null) {
+            metrics.recordError();
+            return null;
+        }
+
+        long preprocessed = System.nanoTime();
+        metrics.recordLatency(PipelineMetrics.Stage.PREPROCESS, preprocessed - start);
+
+        // Run the TensorFlow model once for the whole batch
+        List<Tensor<?>> outputTensors = createOutputTensors(loaded.getSession(), inputTensor);
+
+        long ran = System.nanoTime();
+        metrics.recordLatency(PipelineMetrics.Stage.SESSION_RUN, ran - preprocessed);
+
+        if (outputTensors == null) {
+            metrics.recordError();
+            inputTensor.close();
+            return null;
+        }
+
+        // Copy every softmax row out of the output and release the tensors
+        LabelTable labels = loaded.getLabels();
+        int classes = labels.size();
+        float[] softmax;
+
+        try {
+            softmax = convertOutputToSoftmax(outputTensors, classes, batchSize, threadBuffers);
+        } finally {
+            releaseTensor(inputTensor, outputTensors);
+        }
+
+        if (softmax == null) {
+            metrics.recordError();
+            return null;
         }
 
+        // Split the rows back into one prediction per frame, filtering every row with the same settings
+        List<Prediction> predictions = new ArrayList<>(batchSize);
+        PredictionFilter filter = predictionFilter;
+
+        for (int i = 0; i < batchSize; i++) {
+            int offset = i * classes;
+            int classIndex = findPredictedIndex(softmax, offset, classes);
+
+            predictions.add(createPrediction(labels, filter, classIndex, softmax, offset, classes));
+        }
+
+        // Count the whole batch as one event, so the frame rate is not measured between its rows
+        metrics.recordFrames(batchSize);
+
+        metrics.recordLatency(PipelineMetrics.Stage.POSTPROCESS, System.nanoTime() - ran);
+        return predictions;
+    }
+
+    /**
+     * Predicts the class of a given frame using the loaded TensorFlow model.
+     *
+     * @param frame The input frame to predict the class for.
+     * @return The predicted class as a string, or null if the model is not loaded or failed to run.
+     */
+    public String predictClass(Mat frame) {
+        Prediction prediction = predict(frame);
+        return prediction == null ? null : prediction.getLabel();
+    }
+
+    /**
+     * Predicts the confidence score of a given frame using the loaded TensorFlow model.
+     *
+     * @param frame The input frame to predict the score for.
+     * @return The softmax score of the predicted class, or 0 if the model is not loaded or failed to run.
+     */
+    public float predictScore(Mat frame) {
+        Prediction prediction = predict(frame);
+        return prediction == null ? 0 : prediction.getScore();
+    }
+
+    /**
+     * Copies the pixel values of a preprocessed float image into the reusable input array.
+     * 
+     * @param image the preprocessed CV_32F image
+     * @param threadBuffers the reusable arrays of the current thread
+     * @return a float array whose first image.total() * image.channels() values are the normalized pixels
+     */
+    static float[] copyImageToInput(Mat image, InferenceBuffers threadBuffers) {
+        // Get a float array holding at least the total number of elements in the image times the number of channels
+        float[] floatArray = threadBuffers.input((int) (image.total() * image.channels()));
+
+        // Copy the pixel values from the image to the start of the float array; Mat.get stops at the end of the image
+        image.get(0, 0, floatArray);
+
         // Return the float array
         return floatArray;
     }
 
     /**
-     * Converts the output tensor to a softmax array.
-     * Assumes that the output tensor is softmax and has shape [1, num_classes].
+     * Copies the output tensor into the reusable softmax array.
+     * Assumes that the output tensor is softmax and has shape [batch_size, num_classes].
      * @param output The output tensor to convert.
-     * @return A 2D float array representing the softmax values.
+     * @param classes The number of classes the model scores.
+     * @param batchSize The number of images the output holds scores for.
+     * @param threadBuffers the reusable arrays of the current thread
+     * @return A float array holding the softmax values, one row of scores per image,
+     *         or null if the output does not hold one score per class and image.
      */
-    private float[][] convertOutputToSoftmax(List<Tensor<?>> output) {
-        // Create a 2D float array with 1 row and labels.size() columns
-        float[][] softmax = new float[1][labels.size()];
+    private float[] convertOutputToSoftmax(List<Tensor<?>> output, int classes, int batchSize,
+            InferenceBuffers threadBuffers) {
+        // A model scoring a different number of classes than labels.txt names would overflow the array
+        int elements = output.get(0).numElements();
+
+        if (elements != classes * batchSize) {
+            System.err.println("Failed to read the model output: it holds " + elements + " scores, expected "
+                + classes * batchSize);
+            return null;
+        }
+
+        // Get a float array with one element per class and image
+        float[] softmax = threadBuffers.scores(classes * batchSize);
 
         // Copy the values from the first element of the output list to the array
         // The output list contains one Tensor object for each output of the TensorFlow model. In this case,
         // the first Tensor object is used to represent the predicted class probabilities for the input.
-        output.get(0).copyTo(softmax);
+        output.get(0).writeTo(threadBuffers.scoresBuffer(classes * batchSize));
 
         // Return the float array
         return softmax;
     }
 
     /**
-     * Creates an input tensor from a given OpenCV Mat object, byte array, and float array.
+     * Creates an input tensor from a preprocessed image and the normalized pixels of the current thread.
      * 
-     * @param frame The OpenCV Mat object to create the input tensor from.
-     * @param bytes The byte array to use for the input tensor.
-     * @param floatArray The float array to wrap in a FloatBuffer and use for the input tensor.
+     * @param frame The preprocessed image to create the input tensor from.
+     * @param batchSize The number of images held by the input array.
+     * @param threadBuffers the reusable arrays holding the normalized pixel values.
      * @return The created input tensor, or null if an exception occurred.
      */
-    private Tensor<Float> createInputTensor(Mat frame, byte[] bytes, float[] floatArray) {
-        // The width of the frame
-        int width = frame.width();
-
-        // The height of the frame
-        int height = frame.height();
-
-        // The number of channels in the frame
-        int channels = frame.channels();
+    static Tensor<Float> createInputTensor(Mat frame, int batchSize, InferenceBuffers threadBuffers) {
+        return createInputTensor(batchSize, frame.height(), frame.width(), frame.channels(), threadBuffers);
+    }
 
-        // Wrap the float array containing the pixel values of the image frame
+    /**
+     * Creates an input tensor of the given shape from the normalized pixels of the current thread.
+     *
+     * @param batchSize The number of images held by the input array.
+     * @param height The height of each image.
+     * @param width The width of each image.
+     * @param channels The number of channels of each image.
+     * @param threadBuffers the reusable arrays holding the normalized pixel values.
+     * @return The created input tensor, or null if an exception occurred.
+     */
+    static Tensor<Float> createInputTensor(int batchSize, int height, int width, int channels,
+            InferenceBuffers threadBuffers) {
+        // Get the reusable buffer wrapping the float array containing the pixel values of the image frame
         // FloatBuffer class provides a way to create a buffer of float values that can be used
         // as the data buffer for a Tensor object
-        FloatBuffer floatBuffer = FloatBuffer.wrap(floatArray);
+        FloatBuffer floatBuffer = threadBuffers.inputBuffer(batchSize * height * width * channels);
 
         try {
             // Create a new Tensor object representing the input to the TensorFlow object
-            // The shape of the Tensor object is specified as [1, height, width, channels], which represents a
-            // batch of one image with the specified height, width, and number of channels
-            Tensor<Float> inputTensor = Tensor.create(new long[]{1, height, width, channels}, floatBuffer);
+            // The shape of the Tensor object is specified as [batchSize, height, width, channels], which represents a
+            // batch of images with the specified height, width, and number of channels
+            Tensor<Float> inputTensor = Tensor.create(threadBuffers.shape(batchSize, height, width, channels), floatBuffer);
 
             // Return the input Tensor
             return inputTensor;
@@ -215,10 +908,11 @@ public class ModelManager {
 
     /**
      * Creates output tensors for a given input tensor using the TensorFlow session runner.
+     * @param session the session of the model version to run
      * @param inputTensor the input tensor to feed to the session runner
      * @return a list of output tensors
      */
-    private List<Tensor<?>> createOutputTensors(Tensor<Float> inputTensor) {
+    private List<Tensor<?>> createOutputTensors(Session session, Tensor<Float> inputTensor) {
         try {
             // Create the Session.runner to run the TensorFlow model and fetch the output
             // feed() sets the input to the TensorFlow object
@@ -226,8 +920,8 @@ public class ModelManager {
             // run() runs the TensorFlow model, fetches the output, and returns a list of Tensor objects
             // representing the output of the TensorFlow model
             List<Tensor<?>> output = session.runner()
-                .feed("serving_default_sequential_1_input", inputTensor)
-                .fetch("StatefulPartitionedCall:0")
+                .feed(INPUT_OPERATION, inputTensor)
+                .fetch(OUTPUT_NAME)
                 .run();
             return output;
         } catch (Exception e) {
@@ -238,56 +932,78 @@ public class ModelManager {
     }
 
     /**
-     * Predicts the class and releases the input tensor and output list.
+     * Copies the softmax scores out of the output tensors and releases the input tensor and output list.
      * 
-     * @param inputTensor the input tensor to predict the class from
-     * @param output the list of output tensors
-     * @return the predicted class as a string
+     * @param inputTensor the input tensor the prediction was made from
+     * @param output the list of output tensors, or null if the model failed to run
+     * @param classes the number of classes the model scores
+     * @param threadBuffers the reusable arrays of the current thread
+     * @param scores the array to receive one softmax score per class
+     * @return the index of the predicted class, or -1 if the model failed to run
      */
-    private String predictClassAndRelease(Tensor<Float> inputTensor, List<Tensor<?>> output) {
-        // Convert the output of the TensorFlow model to a float array representing
-        // the predicted class probabilities
-        float[][] softmax = convertOutputToSoftmax(output);
+    private int predictAndRelease(Tensor<Float> inputTensor, List<Tensor<?>> output, int classes,
+            InferenceBuffers threadBuffers, float[] scores) {
+        if (output == null) {
+            inputTensor.close();
+            return -1;
+        }
 
-        // Determine the most likely class for the input
-        String result = findPredictedClass(softmax);
+        float[] softmax;
 
-        // Release the input and output Tensor objects to free up memory used by the Tensor objects
-        releaseTensor(inputTensor, output);
+        try {
+            // Convert the output of the TensorFlow model to a float array representing
+            // the predicted class probabilities
+            softmax = convertOutputToSoftmax(output, classes, 1, threadBuffers);
+        } finally {
+            // Release the input and output Tensor objects to free up memory used by the Tensor objects
+            releaseTensor(inputTensor, output);
+        }
 
-        // Return the predicted class
-        return result;
-    }
+        if (softmax == null) {
+            return -1;
+        }
 
-    /**
-     * Predicts the score and releases the input tensor and output list.
-     * 
-     * @param inputTensor the input tensor to be used for prediction
-     * @param output the list of output tensors
-     * @return the predicted score
-     */
-    private float predictScoreAndRelease(Tensor<Float> inputTensor, List<Tensor<?>> output) {
-        // Convert the output of the TensorFlow model to a float array representing
-        // the predicted class probabilities
-        float[][] softmax = convertOutputToSoftmax(output);
+        // Copy the probabilities into the caller's array
+        if (softmax != scores) {
+            System.arraycopy(softmax, 0, scores, 0, classes);
+        }
 
         // Determine the most likely class for the input
-        float result = findPredictedScore(softmax);
+        return findPredictedIndex(softmax, 0, classes);
+    }
 
-        // Release the input and output Tensor objects to free up memory used by the Tensor objects
-        releaseTensor(inputTensor, output);
+    /**
+     * Creates the prediction for one row of softmax scores, or an unknown prediction
+     * if the prediction filter finds the model is not sure enough.
+     *
+     * @param labels the labels of the model version that produced the scores
+     * @param filter the prediction filter to apply, or null to always name the best class
+     * @param classIndex the index of the class with the highest score
+     * @param softmax the array holding the softmax scores
+     * @param offset the position of the first score of the row
+     * @param classes the number of classes in the row
+     * @return the prediction of the row
+     */
+    private Prediction createPrediction(LabelTable labels, PredictionFilter filter, int classIndex, float[] softmax,
+            int offset, int classes) {
+        if (filter != null && filter.classify(softmax, offset, classes) == Prediction.UNKNOWN) {
+            return new Prediction(Prediction.UNKNOWN_LABEL, Prediction.UNKNOWN,
+                softmax[offset + classIndex], softmax, offset, classes);
+        }
 
-        // Return the predicted score
-        return result;
+        return new Prediction(labels.getLabel(classIndex), classIndex,
+            softmax[offset + classIndex], softmax, offset, classes);
     }
 
     /**
-     * Finds the predicted class based on the highest softmax score.
+     * Finds the index of the class with the highest softmax score in one row of scores.
      * 
-     * @param softmax a 2D float array containing softmax scores
-     * @return the predicted class label
+     * @param softmax a float array containing softmax scores
+     * @param offset the position of the first score of the row
+     * @param length the number of classes in the row
+     * @return the index of the predicted class within the row
      */
-    private String findPredictedClass(float[][] softmax) {
+    private int findPredictedIndex(float[] softmax, int offset, int length) {
         // Set maxScore to the smallest possible negative float value
         float maxScore = -Float.MAX_VALUE;
 
@@ -295,41 +1011,19 @@ public class ModelManager {
         int maxScoreIdx = -1;
 
         // Find the class with the highest softmax score
-        for (int i = 0; i < softmax[0].length; i++) {
+        for (int i = 0; i < length; i++) {
             // Check if value is greater than the current value of maxScore
-            if (softmax[0][i] > maxScore) {
+            if (softmax[offset + i] > maxScore) {
                 // Set maxScore to the value of the current element
-                maxScore = softmax[0][i];
+                maxScore = softmax[offset + i];
 
                 // Set maxScoreIdx to the index of the current element
                 maxScoreIdx = i;
             }
         }
 
-        // Return the class label corresponding to the index of the highest predicted probability
-        return labels.get(maxScoreIdx);
-    }
-
-    /**
-     * Finds the predicted score from a 2D softmax array.
-     * @param softmax the 2D softmax array
-     * @return the predicted score
-     */
-    private float findPredictedScore(float[][] softmax) {
-        // Set maxScore to the smallest possible negative float value
-        float maxScore = -Float.MAX_VALUE;
-
-        // Find the class with the highest softmax score
-        for (int i = 0; i < softmax[0].length; i++) {
-            // Check if value is greater than the current value of maxScore
-            if (softmax[0][i] > maxScore) {
-                // Set maxScore to the value of the current element
-                maxScore = softmax[0][i];
-            }
-        }
-
-        // Return the value of maxScore
-        return maxScore;
+        // Return the index of the highest predicted probability
+        return maxScoreIdx;
     }
 
     /**
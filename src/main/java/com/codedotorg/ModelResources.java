@@ -0,0 +1,114 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Makes the model bundled with the app available as a directory, as TensorFlow requires.
+ * The model is packaged as classpath resources, listed with their checksums in model.index,
+ * which the build generates from the model files. On the first start the files are copied into
+ * the resource cache and verified against the index; later starts find the finished copy by the
+ * checksum of the index and skip the copy. Since the index holds the checksum of every file,
+ * a changed or added model file gets a new cache directory.
+ */
+final class ModelResources {
+
+    /** The classpath directory holding the bundled model */
+    private static final String RESOURCE_DIRECTORY = "/com/codedotorg/model/";
+
+    /** The index listing the checksum, size and path of every model file */
+    private static final String INDEX_FILE = "model.index";
+
+    /** The model directory in the source tree, used if the model cannot be extracted */
+    private static final String SOURCE_DIRECTORY = "src/main/resources/com/codedotorg/model/";
+
+    /** Marks a cached model whose files were all copied and verified */
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private ModelResources() {
+    }
+
+    /**
+     * Returns a directory holding the bundled model, extracting it into the cache if needed.
+     * Prints an error message and stack trace to the console if the model cannot be extracted.
+     *
+     * @return the cached model directory, or the source tree's model directory if extraction failed
+     */
+    static String extract() {
+        return StartupTimeline.time("model extraction", () -> {
+            try {
+                return extractToCache().toString();
+            } catch (IOException e) {
+                System.err.println("Failed to extract the model, using " + SOURCE_DIRECTORY);
+                e.printStackTrace();
+                return SOURCE_DIRECTORY;
+            }
+        });
+    }
+
+    /**
+     * Finds the cached copy of the bundled model, or copies and verifies every file of the index.
+     *
+     * @return the cached model directory
+     * @throws IOException if the index is missing or a file cannot be copied or does not match
+     */
+    private static Path extractToCache() throws IOException {
+        byte[] index = readIndex();
+
+        // The index holds every file's checksum, so the same index means the same files and its checksum names the cached copy
+        Path root = ResourceCache.getRoot();
+        Path target = root.resolve("model-" + ResourceCache.sha256(index).substring(0, 16));
+
+        if (Files.exists(target.resolve(COMPLETE_MARKER))) {
+            return target;
+        }
+
+        // Remove a copy left unfinished by an older version, then copy into a temporary directory
+        ResourceCache.delete(target);
+        Files.createDirectories(root);
+        Path temporary = Files.createTempDirectory(root, "model-");
+
+        try {
+            for (String line : new String(index, StandardCharsets.UTF_8).split("\n")) {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                // Each line is: <sha-256> <size> <relative path>
+                String[] fields = line.split(" ", 3);
+                ResourceCache.copyResource(RESOURCE_DIRECTORY + fields[2], temporary.resolve(fields[2]),
+                    fields[0], Long.parseLong(fields[1]));
+            }
+
+            Files.createFile(temporary.resolve(COMPLETE_MARKER));
+            ResourceCache.install(temporary, target);
+        } catch (IOException | RuntimeException e) {
+            ResourceCache.delete(temporary);
+            throw e;
+        }
+
+        System.out.println("Model extracted to " + target);
+        return target;
+    }
+
+    /**
+     * Reads the index of the bundled model.
+     *
+     * @return the bytes of model.index
+     * @throws IOException if the index is missing, as when running from classes not built by Maven
+     */
+    private static byte[] readIndex() throws IOException {
+        try (InputStream stream = ModelResources.class.getResourceAsStream(RESOURCE_DIRECTORY + INDEX_FILE)) {
+            if (stream == null) {
+                throw new IOException("Missing resource " + RESOURCE_DIRECTORY + INDEX_FILE);
+            }
+
+            return stream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads a ModelManager whenever the files in its model directory change, so a retrained
+ * Teachable Machine export can be deployed by copying it over the old one while the app runs.
+ * An export consists of several files, so the watcher waits until the directory has been quiet
+ * for a moment before reloading. The reload runs on the watcher's own thread; predictions keep
+ * using the previous version until the new one has loaded and warmed up.
+ *
+ * The bundled model is extracted to a cache directory named after its checksum, which is not
+ * a place to deploy to. The apps therefore watch a model directory only when they are started
+ * with -Dtmexample.model.dir=DIRECTORY; a new export is deployed by copying it into that directory.
+ */
+public class ModelWatcher implements AutoCloseable {
+
+    /** The name of the SavedModel subdirectory holding the weights */
+    private static final String VARIABLES_DIRECTORY = "variables";
+
+    /** How long the directory must stay unchanged before the model is reloaded */
+    private static final long SETTLE_MILLIS = 1000;
+
+    /** The model to reload */
+    private final ModelManager model;
+
+    /** The model directory */
+    private final Path directory;
+
+    /** Reports changes to the model directory, or null before start() */
+    private WatchService watchService;
+
+    /**
+     * Constructs a ModelWatcher for the directory the model was loaded from.
+     *
+     * @param model the model to reload when its directory changes
+     */
+    public ModelWatcher(ModelManager model) {
+        this.model = model;
+        this.directory = Paths.get(model.getModelDirectory());
+    }
+
+    /**
+     * Starts watching the model directory on a daemon thread.
+     * Prints an error message and stack trace to the console if the directory cannot be watched.
+     *
+     * @return true if the directory is being watched
+     */
+    public synchronized boolean start() {
+        if (watchService != null) {
+            return true;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            register();
+        } catch (IOException e) {
+            System.err.println("Failed to watch the model directory");
+            e.printStackTrace();
+            return false;
+        }
+
+        Thread thread = new Thread(this::watch, "model-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        return true;
+    }
+
+    /**
+     * Stops watching the model directory.
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            // Closing the service wakes the watcher thread, which then stops
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Failed to stop watching the model directory");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for changes to the model directory and reloads the model once they settle, until closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                // Wait for the first change of an update
+                drain(watchService.take());
+
+                // Wait until the copy has finished and the directory has been quiet for a moment
+                WatchKey key;
+
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    drain(key);
+                }
+
+                // A failed reload keeps the previous version; never let it stop the watcher
+                try {
+                    model.reload();
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to reload the model, keeping the previous version");
+                    e.printStackTrace();
+                }
+
+                // The export may have replaced the variables directory, so watch the new one
+                register();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // The watcher was closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Failed to keep watching the model directory");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers the model directory and its variables subdirectory with the watch service.
+     *
+     * @throws IOException if a directory cannot be watched
+     */
+    private void register() throws IOException {
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        Path variables = directory.resolve(VARIABLES_DIRECTORY);
+
+        if (Files.isDirectory(variables)) {
+            variables.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    /**
+     * Discards the events of a key and makes it report the next changes.
+     *
+     * @param key the key that reported changes
+     */
+    private void drain(WatchKey key) {
+        key.pollEvents();
+        key.reset();
+    }
+}
@@ -0,0 +1,162 @@
+package com.codedotorg;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides whether a camera frame is worth classifying by comparing it with the previous one.
+ * Each frame is shrunk to a tiny grey image in native code and the mean absolute difference
+ * to the previous tiny image is its motion score. A frame is classified when the score passes
+ * the threshold, or when no frame has been classified for the maximum staleness interval.
+ * After a period without motion the detector reports that the camera is idle, so the capture
+ * loop can slow down until something moves again.
+ * Only the capture thread updates the detector; the score and idle state may be read from any thread.
+ */
+public class MotionDetector {
+
+    /** The size frames are shrunk to before they are compared */
+    private static final Size SAMPLE_SIZE = new Size(32, 24);
+
+    /** The mean grey level difference, from 0 to 255, that counts as motion */
+    private final double threshold;
+
+    /** The longest time in nanoseconds between two classified frames, even without motion */
+    private final long maxStaleNanos;
+
+    /** The time in nanoseconds without motion after which the camera counts as idle */
+    private final long idleAfterNanos;
+
+    /** The frame rate the capture loop drops to while the camera is idle */
+    private final double idleFps;
+
+    /** The shrunk colour frame */
+    private final Mat small = new Mat();
+
+    /** The shrunk grey frame */
+    private final Mat current = new Mat();
+
+    /** The shrunk grey frame before the current one */
+    private final Mat previous = new Mat();
+
+    /** The difference between the current and previous frames */
+    private final Mat difference = new Mat();
+
+    /** The time motion was last seen */
+    private long lastMotionNanos;
+
+    /** The time a frame was last passed on to the model */
+    private long lastInferenceNanos;
+
+    /** The motion score of the latest frame */
+    private volatile double score;
+
+    /** Whether the camera has been still for the idle period */
+    private volatile boolean idle;
+
+    /**
+     * Constructs a MotionDetector.
+     *
+     * @param threshold the mean grey level difference, from 0 to 255, that counts as motion
+     * @param maxStaleMillis the longest time between two classified frames, even without motion
+     * @param idleAfterMillis the time without motion after which the camera counts as idle
+     * @param idleFps the frame rate the capture loop drops to while idle, greater than 0
+     * @throws IllegalArgumentException if idleFps is not greater than 0
+     */
+    public MotionDetector(double threshold, long maxStaleMillis, long idleAfterMillis, double idleFps) {
+        // The capture loop waits 1 / idleFps seconds per idle frame
+        if (!(idleFps > 0)) {
+            throw new IllegalArgumentException("idleFps must be greater than 0");
+        }
+
+        this.threshold = threshold;
+        this.maxStaleNanos = maxStaleMillis * 1_000_000L;
+        this.idleAfterNanos = idleAfterMillis * 1_000_000L;
+        this.idleFps = idleFps;
+    }
+
+    /**
+     * Scores the motion in a new frame and decides whether the model should classify it.
+     * The first frame is always classified.
+     *
+     * @param frame the BGR or grayscale camera frame
+     * @return true if the frame moved enough or the last classified frame is too old
+     */
+    public boolean shouldClassify(Mat frame) {
+        long now = System.nanoTime();
+        boolean first = previous.empty();
+
+        // Shrink first so the colour conversion and difference only touch a few hundred pixels
+        Imgproc.resize(frame, small, SAMPLE_SIZE, 0, 0, Imgproc.INTER_AREA);
+
+        if (small.channels() == 3) {
+            Imgproc.cvtColor(small, current, Imgproc.COLOR_BGR2GRAY);
+        }
+        else {
+            small.copyTo(current);
+        }
+
+        if (first) {
+            score = 0;
+            lastMotionNanos = now;
+        }
+        else {
+            // The mean absolute difference of the grey levels is the motion score
+            Core.absdiff(current, previous, difference);
+            score = Core.mean(difference).val[0];
+        }
+
+        current.copyTo(previous);
+
+        if (score >= threshold) {
+            lastMotionNanos = now;
+        }
+
+        idle = now - lastMotionNanos >= idleAfterNanos;
+
+        // Classify on motion, or refresh the prediction once it has gone stale
+        boolean classify = first || score >= threshold || now - lastInferenceNanos >= maxStaleNanos;
+
+        if (classify) {
+            lastInferenceNanos = now;
+        }
+
+        return classify;
+    }
+
+    /**
+     * Returns the motion score of the latest frame.
+     *
+     * @return the mean grey level difference to the previous frame, from 0 to 255
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Returns whether the camera has been still for the idle period.
+     *
+     * @return true if the capture loop should run at the idle frame rate
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Returns the frame rate the capture loop drops to while the camera is idle.
+     *
+     * @return the idle frame rate
+     */
+    public double getIdleFps() {
+        return idleFps;
+    }
+
+    /**
+     * Forgets the previous frame so the next frame is classified and compared afresh.
+     */
+    public void reset() {
+        previous.release();
+        idle = false;
+    }
+}
@@ -0,0 +1,315 @@
+package com.codedotorg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.opencv.core.Mat;
+
+/**
+ * Watches several cameras with one shared model.
+ * Each camera reads frames on its own capture thread into a handoff that keeps only
+ * its newest frame. A single scheduler thread visits the cameras in round-robin order,
+ * takes the newest frame of each and classifies them together with one batched session
+ * run, so adding a camera adds neither another copy of the model nor another thread
+ * competing for the session. A camera that produces frames faster than the others
+ * still gets at most one frame per batch, so no camera can starve the rest.
+ */
+public class MultiCameraController implements AutoCloseable {
+
+    /** How long the scheduler sleeps when no camera has a new frame, unless a capture thread wakes it */
+    private static final long SCHEDULER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** How long the scheduler waits for each capture thread to stop before releasing the handoffs */
+    private static final long CAPTURE_JOIN_MILLIS = 1000;
+
+    /** Numbers each controller so the JMX names of its cameras do not clash */
+    private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+
+    /** The model shared by every camera */
+    private final ModelManager model;
+
+    /** The largest number of frames classified in one session run */
+    private final int maxBatchSize;
+
+    /** The prefix of the metrics names of the cameras */
+    private final String name = "multi-" + INSTANCE_COUNT.incrementAndGet();
+
+    /** The cameras in the order they were added */
+    private final List<CameraFeed> feeds = new ArrayList<>();
+
+    /** Receive every new prediction together with its camera, on the scheduler thread */
+    private final List<BiConsumer<CameraFeed, Prediction>> predictionListeners = new CopyOnWriteArrayList<>();
+
+    /** The thread that batches frames and runs the model, or null before start() */
+    private volatile Thread scheduler;
+
+    /** The capture thread of each camera, filled by start() */
+    private final List<Thread> captureThreads = new CopyOnWriteArrayList<>();
+
+    /** Whether the cameras are still being captured */
+    private volatile boolean running;
+
+    /**
+     * Constructs a controller that classifies up to one frame per camera in each session run.
+     *
+     * @param model the model shared by every camera
+     */
+    public MultiCameraController(ModelManager model) {
+        this(model, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a controller.
+     *
+     * @param model the model shared by every camera
+     * @param maxBatchSize the largest number of frames classified in one session run; 1 serves the cameras one at a time
+     */
+    public MultiCameraController(ModelManager model, int maxBatchSize) {
+        this.model = model;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Adds a camera. Cameras must be added before start() is called.
+     *
+     * @param source the camera, file or generator to read frames from
+     * @return the feed that reports the camera's predictions and metrics
+     */
+    public synchronized CameraFeed addCamera(FrameSource source) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Cameras must be added before the controller starts");
+        }
+
+        CameraFeed feed = new CameraFeed(feeds.size(), source, name + "-camera-" + feeds.size());
+        feed.getMetrics().registerMBean();
+        feeds.add(feed);
+
+        return feed;
+    }
+
+    /**
+     * Returns the cameras in the order they were added.
+     *
+     * @return an unmodifiable list of the camera feeds
+     */
+    public synchronized List<CameraFeed> getCameras() {
+        return Collections.unmodifiableList(new ArrayList<>(feeds));
+    }
+
+    /**
+     * Adds a listener that receives every new prediction and the camera it was made for.
+     * Listeners are called on the scheduler thread and should return quickly;
+     * JavaFX apps should hand any UI work to Platform.runLater().
+     *
+     * @param listener receives the camera and its new prediction
+     */
+    public void addPredictionListener(BiConsumer<CameraFeed, Prediction> listener) {
+        predictionListeners.add(listener);
+    }
+
+    /**
+     * Starts a capture thread for every camera and the scheduler thread that classifies their frames.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        running = true;
+
+        // Create the capture threads first so the scheduler can wait for all of them when it stops
+        for (CameraFeed feed : feeds) {
+            Thread capture = new Thread(() -> runCapture(feed), name + "-capture-" + feed.getIndex());
+            capture.setDaemon(true);
+            captureThreads.add(capture);
+        }
+
+        scheduler = new Thread(this::runScheduler, name + "-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+
+        for (Thread capture : captureThreads) {
+            capture.start();
+        }
+    }
+
+    /**
+     * Stops every capture thread and the scheduler.
+     */
+    @Override
+    public void close() {
+        running = false;
+
+        Thread current;
+
+        synchronized (this) {
+            current = scheduler;
+
+            // Without a scheduler nothing else will unregister the cameras' metrics
+            if (current == null) {
+                for (CameraFeed feed : feeds) {
+                    feed.getMetrics().unregisterMBean();
+                }
+            }
+        }
+
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Reads frames from one camera and hands the newest one to the scheduler until stopped.
+     *
+     * @param feed the camera to read from
+     */
+    private void runCapture(CameraFeed feed) {
+        // Make sure the OpenCV library has finished loading before the first frame
+        OpenCvLoader.load().join();
+
+        FrameSource source = feed.getSource();
+
+        if (!source.open()) {
+            System.out.println("Error! " + source.getName() + " can't be opened.");
+            source.close();
+            return;
+        }
+
+        // Create a new frame to host the image from the camera
+        Mat frame = new Mat();
+        long sequence = 0;
+
+        while (running) {
+            long start = System.nanoTime();
+
+            if (!source.read(frame)) {
+                System.out.println("Cannot capture the frame from " + source.getName() + ".");
+                break;
+            }
+
+            long captured = System.nanoTime();
+            feed.getMetrics().recordLatency(PipelineMetrics.Stage.CAPTURE, captured - start);
+            feed.getMetrics().recordFrame();
+            feed.getCaptureCounters().recordProcessed();
+
+            // Replace the camera's waiting frame and wake the scheduler
+            feed.getHandoff().publish(frame, sequence++, captured);
+            LockSupport.unpark(scheduler);
+        }
+
+        // Release the frame and the source after usage
+        frame.release();
+        source.close();
+    }
+
+    /**
+     * Collects the newest frame of each camera in round-robin order and classifies them
+     * in one session run, until stopped.
+     */
+    private void runScheduler() {
+        int cameraCount = feeds.size();
+        int batchCapacity = Math.min(maxBatchSize, Math.max(1, cameraCount));
+
+        // Reused for every batch so the scheduler does not allocate per round
+        CapturedFrame[] taken = new CapturedFrame[batchCapacity];
+        CameraFeed[] owners = new CameraFeed[batchCapacity];
+        List<Mat> batch = new ArrayList<>(batchCapacity);
+
+        // The camera visited first in the next round
+        int next = 0;
+
+        while (running) {
+            int count = 0;
+            int lastServed = -1;
+
+            // Take at most one frame per camera, starting after the camera served last
+            for (int i = 0; i < cameraCount && count < batchCapacity; i++) {
+                int index = (next + i) % cameraCount;
+                CapturedFrame frame = feeds.get(index).getHandoff().poll();
+
+                if (frame != null) {
+                    taken[count] = frame;
+                    owners[count] = feeds.get(index);
+                    count++;
+                    lastServed = index;
+                }
+            }
+
+            if (count == 0) {
+                LockSupport.parkNanos(this, SCHEDULER_POLL_NANOS);
+                continue;
+            }
+
+            // Begin the next round after the last camera served, so a full batch rotates through every camera
+            next = (lastServed + 1) % cameraCount;
+
+            classify(taken, owners, count, batch);
+        }
+
+        // Let the capture threads finish their last publish before the handoffs release their frames;
+        // a camera stuck in read() past the timeout publishes into a closed handoff, which releases the frame
+        for (Thread capture : captureThreads) {
+            try {
+                capture.join(CAPTURE_JOIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Release the frames and drop the cameras' metrics from JMX, which would otherwise keep them alive
+        for (CameraFeed feed : feeds) {
+            feed.getHandoff().close();
+            feed.getMetrics().unregisterMBean();
+        }
+    }
+
+    /**
+     * Runs the model on the collected frames and publishes each prediction to its camera.
+     *
+     * @param taken the frames to classify
+     * @param owners the camera of each frame
+     * @param count the number of frames collected
+     * @param batch a reusable list for the frames' Mats
+     */
+    private void classify(CapturedFrame[] taken, CameraFeed[] owners, int count, List<Mat> batch) {
+        // Every round goes through predictBatch(), even with one frame, so each camera gets the same
+        // filtering whatever the other cameras had ready and the thread's buffers keep their size
+        batch.clear();
+
+        for (int i = 0; i < count; i++) {
+            batch.add(taken[i].getMat());
+        }
+
+        List<Prediction> results = model.predictBatch(batch);
+
+        long published = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            CapturedFrame frame = taken[i];
+            CameraFeed feed = owners[i];
+
+            if (results == null) {
+                feed.getMetrics().recordError();
+            }
+            else {
+                Prediction result = results.get(i);
+                feed.publish(new PredictionSnapshot(result, frame.getSequence(), frame.getCaptureNanos(), published));
+
+                for (BiConsumer<CameraFeed, Prediction> listener : predictionListeners) {
+                    listener.accept(feed, result);
+                }
+            }
+
+            feed.getHandoff().recycle(frame);
+            taken[i] = null;
+            owners[i] = null;
+        }
+    }
+}
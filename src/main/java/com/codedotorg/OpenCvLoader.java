@@ -0,0 +1,196 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads the OpenCV native library once per process, in the background.
+ * Every caller gets the same future, so the library is extracted and loaded only once
+ * however many controllers and models wait for it. The library is copied out of the
+ * OpenCV jar into the resource cache on the first start and loaded from there afterwards,
+ * instead of being extracted to a new temporary directory on every launch. The copy is
+ * stored with the SHA-256 checksum it was written with and checked before every load,
+ * so a truncated or damaged copy is extracted again instead of being loaded.
+ */
+final class OpenCvLoader {
+
+    /** The name of the native library bundled with the OpenCV jar, without platform prefix or suffix */
+    private static final String LIBRARY_NAME = "opencv_java470";
+
+    /** The file next to the cached library holding its SHA-256 checksum */
+    private static final String CHECKSUM_FILE = "checksum.sha256";
+
+    /** Completes when the native library is loaded, or null before the first call */
+    private static CompletableFuture<Void> loading;
+
+    private OpenCvLoader() {
+    }
+
+    /**
+     * Starts loading the OpenCV native library if it is not loading yet.
+     *
+     * @return a future that completes when OpenCV can be used
+     */
+    static synchronized CompletableFuture<Void> load() {
+        if (loading == null) {
+            loading = CompletableFuture.runAsync(() -> StartupTimeline.time("opencv natives", OpenCvLoader::loadCached));
+        }
+
+        return loading;
+    }
+
+    /**
+     * Loads the native library from the resource cache, copying it there on first use.
+     * Falls back to the OpenCV jar's own loader, which extracts the library to a temporary
+     * directory, if the library cannot be cached or the cached copy cannot be loaded.
+     */
+    private static void loadCached() {
+        String resource = findLibraryResource();
+        URL url = resource == null ? null : OpenCvLoader.class.getResource(resource);
+
+        if (url != null) {
+            try {
+                Path entry = findCacheEntry(resource, url);
+                Path library = entry.resolve(System.mapLibraryName(LIBRARY_NAME));
+
+                // Copy the library out of the jar unless an intact copy is cached already
+                if (!isIntact(entry, library)) {
+                    extract(resource, entry, library);
+                }
+
+                System.load(library.toString());
+                return;
+            } catch (IOException | UnsatisfiedLinkError e) {
+                System.err.println("Failed to load OpenCV from the cache, loading it with the OpenCV jar's own loader");
+                e.printStackTrace();
+            }
+        }
+
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /**
+     * Finds the cache directory for the library inside the OpenCV jar.
+     * The directory is named after the SHA-256 checksum of the jar entry's name, size and CRC,
+     * which the jar stores, so a different OpenCV jar gets its own copy without the library
+     * having to be read and hashed on every start.
+     *
+     * @param resource the classpath resource name of the library
+     * @param url the location of the library inside the OpenCV jar
+     * @return the cache directory of the library, which may not exist yet
+     * @throws IOException if the jar entry cannot be read
+     */
+    private static Path findCacheEntry(String resource, URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        long size = connection.getContentLengthLong();
+        long crc = connection instanceof JarURLConnection ? ((JarURLConnection) connection).getJarEntry().getCrc() : -1;
+
+        String identity = resource + " " + size + " " + crc;
+        String key = ResourceCache.sha256(identity.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+
+        return ResourceCache.getRoot().resolve("opencv").resolve(key);
+    }
+
+    /**
+     * Checks whether a cached library still has the SHA-256 checksum it was written with.
+     *
+     * @param entry the cache directory of the library
+     * @param library the cached library file
+     * @return true if the library and its checksum exist and match
+     * @throws IOException if the cached files cannot be read
+     */
+    private static boolean isIntact(Path entry, Path library) throws IOException {
+        Path checksum = entry.resolve(CHECKSUM_FILE);
+
+        if (!Files.isRegularFile(library) || !Files.isRegularFile(checksum)) {
+            return false;
+        }
+
+        String expected = new String(Files.readAllBytes(checksum), StandardCharsets.UTF_8).trim();
+
+        if (expected.equals(ResourceCache.sha256(library))) {
+            return true;
+        }
+
+        System.err.println("The cached OpenCV library " + library + " is damaged, extracting it again");
+        return false;
+    }
+
+    /**
+     * Copies the library out of the OpenCV jar into a new cache directory, together with its checksum.
+     * Replaces a damaged copy left by an earlier start.
+     *
+     * @param resource the classpath resource name of the library
+     * @param entry the cache directory of the library
+     * @param library the cached library file inside the directory
+     * @throws IOException if the library cannot be copied
+     */
+    private static void extract(String resource, Path entry, Path library) throws IOException {
+        ResourceCache.delete(entry);
+        Files.createDirectories(entry.getParent());
+        Path temporary = Files.createTempDirectory(entry.getParent(), "opencv-");
+
+        try {
+            String checksum = ResourceCache.copyResource(resource, temporary.resolve(library.getFileName()), null, -1);
+            Files.write(temporary.resolve(CHECKSUM_FILE), checksum.getBytes(StandardCharsets.UTF_8));
+            ResourceCache.install(temporary, entry);
+        } catch (IOException | RuntimeException e) {
+            ResourceCache.delete(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the native library for the current platform inside the OpenCV jar.
+     *
+     * @return the classpath resource name, or null if the platform is not known
+     */
+    private static String findLibraryResource() {
+        String os = System.getProperty("os.name").toLowerCase();
+        String osDirectory;
+
+        if (os.contains("win")) {
+            osDirectory = "windows";
+        }
+        else if (os.contains("mac")) {
+            osDirectory = "osx";
+        }
+        else if (os.contains("linux")) {
+            osDirectory = "linux";
+        }
+        else {
+            return null;
+        }
+
+        String archDirectory;
+
+        switch (System.getProperty("os.arch").toLowerCase()) {
+            case "amd64":
+            case "x86_64":
+                archDirectory = "x86_64";
+                break;
+            case "aarch64":
+            case "arm64":
+                archDirectory = "ARMv8";
+                break;
+            case "arm":
+                archDirectory = "ARMv7";
+                break;
+            case "x86":
+            case "i386":
+            case "i686":
+                archDirectory = "x86_32";
+                break;
+            default:
+                return null;
+        }
+
+        return "/nu/pattern/opencv/" + osDirectory + "/" + archDirectory + "/" + System.mapLibraryName(LIBRARY_NAME);
+    }
+}
@@ -0,0 +1,327 @@
+package com.codedotorg;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects latency histograms and counters for the camera and inference pipeline.
+ * Every stage records its own latency, and the frame rate, dropped frames and
+ * inference errors are counted alongside. The values can be read directly,
+ * through JMX once registered, or from a periodic log line.
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    /** The stages whose latency is recorded */
+    public enum Stage {
+        /** Reading a frame from the camera or another source */
+        CAPTURE,
+
+        /** Cropping, resizing and normalizing a frame into an input tensor */
+        PREPROCESS,
+
+        /** Running the TensorFlow session */
+        SESSION_RUN,
+
+        /** Copying the softmax out of the output tensor and finding the top class */
+        POSTPROCESS,
+
+        /** Publishing a frame to the user interface */
+        UI_PUBLISH,
+
+        /** From reading a frame to publishing its prediction */
+        END_TO_END
+    }
+
+    /** The weight of the newest frame interval in the smoothed frame rate */
+    private static final double FPS_SMOOTHING = 0.1;
+
+    /** The name used in the JMX object name and the log line */
+    private final String name;
+
+    /** One histogram per stage */
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    /** The number of frames recorded */
+    private final AtomicLong frames = new AtomicLong();
+
+    /** The number of frames the model failed to classify */
+    private final AtomicLong errors = new AtomicLong();
+
+    /** The time the previous frame was recorded, or 0 before the first frame */
+    private final AtomicLong lastFrameNanos = new AtomicLong();
+
+    /** The smoothed time between frames in nanoseconds */
+    private volatile double frameIntervalNanos;
+
+    /** The stage counters whose dropped frames are reported by these metrics */
+    private final List<StageCounters> trackedStages = new CopyOnWriteArrayList<>();
+
+    /** Prints the periodic log line, or null if logging is off */
+    private ScheduledExecutorService logger;
+
+    /**
+     * Constructs empty metrics.
+     *
+     * @param name the name used in the JMX object name and the log line
+     */
+    public PipelineMetrics(String name) {
+        this.name = name;
+
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Returns the name of these metrics.
+     *
+     * @return the name used in the JMX object name and the log line
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records how long a stage took for one frame.
+     *
+     * @param stage the stage that ran
+     * @param nanos the time it took in nanoseconds
+     */
+    public void recordLatency(Stage stage, long nanos) {
+        histograms.get(stage).record(nanos);
+    }
+
+    /**
+     * Records that a frame went through the pipeline and updates the frame rate.
+     */
+    public void recordFrame() {
+        recordFrames(1);
+    }
+
+    /**
+     * Records that several frames went through the pipeline together, such as one batch,
+     * and updates the frame rate once. The time since the previous event is shared among
+     * the frames, so frames finishing microseconds apart do not make the rate spike.
+     *
+     * @param count the number of frames, at least 1
+     */
+    public void recordFrames(int count) {
+        frames.addAndGet(count);
+
+        long now = System.nanoTime();
+        long previous = lastFrameNanos.getAndSet(now);
+
+        if (previous != 0) {
+            // Smooth the interval so one slow frame does not make the rate jump
+            double interval = (double) (now - previous) / count;
+            double smoothed = frameIntervalNanos;
+            frameIntervalNanos = smoothed == 0 ? interval : smoothed + FPS_SMOOTHING * (interval - smoothed);
+        }
+    }
+
+    /**
+     * Records that the model failed to classify a frame.
+     */
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Includes the dropped frames of a stage in the dropped frame count.
+     *
+     * @param counters the counters of the stage
+     */
+    public void trackStage(StageCounters counters) {
+        trackedStages.add(counters);
+    }
+
+    /**
+     * Returns the latency histogram of a stage.
+     *
+     * @param stage the stage
+     * @return the live histogram of the stage
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Returns a summary of the latency of a stage.
+     *
+     * @param stage the stage
+     * @return the latency summary in milliseconds
+     */
+    public LatencySummary getLatency(Stage stage) {
+        return LatencySummary.of(histograms.get(stage));
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        double interval = frameIntervalNanos;
+        return interval == 0 ? 0 : 1e9 / interval;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        long dropped = 0;
+
+        for (StageCounters counters : trackedStages) {
+            dropped += counters.getDropped();
+        }
+
+        return dropped;
+    }
+
+    @Override
+    public long getInferenceErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public LatencySummary getCaptureLatency() {
+        return getLatency(Stage.CAPTURE);
+    }
+
+    @Override
+    public LatencySummary getPreprocessLatency() {
+        return getLatency(Stage.PREPROCESS);
+    }
+
+    @Override
+    public LatencySummary getSessionRunLatency() {
+        return getLatency(Stage.SESSION_RUN);
+    }
+
+    @Override
+    public LatencySummary getPostprocessLatency() {
+        return getLatency(Stage.POSTPROCESS);
+    }
+
+    @Override
+    public LatencySummary getUiPublishLatency() {
+        return getLatency(Stage.UI_PUBLISH);
+    }
+
+    @Override
+    public LatencySummary getEndToEndLatency() {
+        return getLatency(Stage.END_TO_END);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+
+        frames.set(0);
+        errors.set(0);
+        lastFrameNanos.set(0);
+        frameIntervalNanos = 0;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server so JMX clients can read them.
+     * Prints an error message and stack trace to the console if registration fails.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.codedotorg:type=PipelineMetrics,name=" + ObjectName.quote(name));
+
+            // Replace metrics of the same name, for example from a previous controller
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            System.err.println("Failed to register the pipeline metrics");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, so the server no longer keeps them alive.
+     * Does nothing if they are not registered.
+     * Prints an error message and stack trace to the console if unregistration fails.
+     */
+    public void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.codedotorg:type=PipelineMetrics,name=" + ObjectName.quote(name));
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to unregister the pipeline metrics");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints a summary line to the console at a fixed period until stopLogging() is called.
+     *
+     * @param period the time between log lines
+     * @param unit the unit of the period
+     */
+    public synchronized void startLogging(long period, TimeUnit unit) {
+        stopLogging();
+
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        logger.scheduleAtFixedRate(() -> System.out.println(this), period, period, unit);
+    }
+
+    /**
+     * Stops the periodic log line.
+     */
+    public synchronized void stopLogging() {
+        if (logger != null) {
+            logger.shutdownNow();
+            logger = null;
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the frame rate, counters and every stage that recorded a latency.
+     *
+     * @return the summary line
+     */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        line.append(name)
+            .append(String.format(": fps=%.1f frames=%d dropped=%d errors=%d",
+                getFramesPerSecond(), getFrameCount(), getDroppedFrames(), getInferenceErrors()));
+
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms.get(stage);
+
+            if (histogram.getCount() > 0) {
+                line.append(" | ").append(stage.name().toLowerCase()).append(' ').append(LatencySummary.of(histogram));
+            }
+        }
+
+        return line.toString();
+    }
+}
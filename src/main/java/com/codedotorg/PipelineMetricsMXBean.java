@@ -0,0 +1,41 @@
+package com.codedotorg;
+
+/**
+ * The JMX view of a PipelineMetrics instance.
+ * Registered under com.codedotorg:type=PipelineMetrics,name=&lt;name&gt;.
+ */
+public interface PipelineMetricsMXBean {
+
+    /** @return the recent frame rate, smoothed over the last few frames */
+    double getFramesPerSecond();
+
+    /** @return the number of frames recorded since the metrics were created or reset */
+    long getFrameCount();
+
+    /** @return the number of frames replaced before a stage used them */
+    long getDroppedFrames();
+
+    /** @return the number of frames the model failed to classify */
+    long getInferenceErrors();
+
+    /** @return the time spent reading frames from the source */
+    LatencySummary getCaptureLatency();
+
+    /** @return the time spent turning frames into input tensors */
+    LatencySummary getPreprocessLatency();
+
+    /** @return the time spent in the TensorFlow session run */
+    LatencySummary getSessionRunLatency();
+
+    /** @return the time spent turning output tensors into predictions */
+    LatencySummary getPostprocessLatency();
+
+    /** @return the time spent publishing frames to the user interface */
+    LatencySummary getUiPublishLatency();
+
+    /** @return the time from reading a frame to publishing its prediction */
+    LatencySummary getEndToEndLatency();
+
+    /** Clears every histogram and counter. */
+    void reset();
+}
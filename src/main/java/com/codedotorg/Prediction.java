@@ -0,0 +1,140 @@
+package com.codedotorg;
+
+import java.util.Arrays;
+
+public final class Prediction {
+
+    /** The class index of a prediction the model was not sure enough about to name a class */
+    public static final int UNKNOWN = -1;
+
+    /** The label of an unknown prediction */
+    public static final String UNKNOWN_LABEL = "unknown";
+
+    /** The class label with the highest softmax score */
+    private final String label;
+
+    /** The index of the predicted class in the labels list */
+    private final int classIndex;
+
+    /** The softmax score of the predicted class */
+    private final float score;
+
+    /** The softmax scores for every class, in label order */
+    private final float[] scores;
+
+    /**
+     * Constructs a new Prediction object.
+     * The scores array is copied so that later changes to the caller's array
+     * cannot change this prediction.
+     *
+     * @param label the predicted class label
+     * @param classIndex the index of the predicted class, or UNKNOWN
+     * @param score the softmax score of the predicted class, or of the best class if unknown
+     * @param scores the softmax scores for every class
+     */
+    public Prediction(String label, int classIndex, float score, float[] scores) {
+        this(label, classIndex, score, scores, 0, scores.length);
+    }
+
+    /**
+     * Constructs a new Prediction object from one row of a larger score array,
+     * such as the softmax output of a batch.
+     *
+     * @param label the predicted class label
+     * @param classIndex the index of the predicted class, or UNKNOWN
+     * @param score the softmax score of the predicted class, or of the best class if unknown
+     * @param scores the array holding the softmax scores
+     * @param offset the position of the first score of this prediction
+     * @param length the number of classes
+     */
+    Prediction(String label, int classIndex, float score, float[] scores, int offset, int length) {
+        this.label = label;
+        this.classIndex = classIndex;
+        this.score = score;
+        this.scores = Arrays.copyOfRange(scores, offset, offset + length);
+    }
+
+    /**
+     * Returns the predicted class label.
+     *
+     * @return the predicted class label
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the index of the predicted class in the labels list.
+     *
+     * @return the index of the predicted class
+     */
+    public int getClassIndex() {
+        return classIndex;
+    }
+
+    /**
+     * Returns the softmax score of the predicted class.
+     *
+     * @return the confidence score of the prediction
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * Returns whether the model was not sure enough about the frame to name a class,
+     * as decided by the model's PredictionFilter.
+     *
+     * @return true if the prediction has no class
+     */
+    public boolean isUnknown() {
+        return classIndex == UNKNOWN;
+    }
+
+    /**
+     * Finds the highest scoring classes, best first, without allocating.
+     * Also works for unknown predictions, to show what the model was torn between.
+     *
+     * @param k the number of classes to find
+     * @param topClasses receives the indexes of the best classes; must hold at least k values
+     * @param topScores receives the scores of the best classes; must hold at least k values
+     * @return the number of classes found, which is k unless the model has fewer classes
+     * @throws IllegalArgumentException if k is negative or larger than either output array
+     */
+    public int getTopK(int k, int[] topClasses, float[] topScores) {
+        return PredictionFilter.selectTopK(scores, 0, scores.length, k, topClasses, topScores);
+    }
+
+    /**
+     * Returns the number of classes the model scored.
+     *
+     * @return the length of the softmax vector
+     */
+    public int getClassCount() {
+        return scores.length;
+    }
+
+    /**
+     * Returns the softmax score of a single class.
+     *
+     * @param index the index of the class
+     * @return the softmax score of the class
+     */
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Returns a copy of the full softmax vector.
+     *
+     * @return the softmax scores for every class, in label order
+     */
+    public float[] getScores() {
+        return scores.clone();
+    }
+
+    @Override
+    public String toString() {
+        return label + " - " + score + " " + Arrays.toString(scores);
+    }
+}
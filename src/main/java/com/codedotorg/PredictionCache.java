@@ -0,0 +1,233 @@
+package com.codedotorg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Remembers recent predictions by a perceptual hash of their frame, so a frame that
+ * looks the same as a recent one can reuse its prediction instead of running the model.
+ * The hash is a 64-bit difference hash: the frame is shrunk to 9x8 grey pixels and each
+ * bit records whether a pixel is brighter than its right neighbour. Frames whose hashes
+ * differ in at most the tolerated number of bits count as the same scene.
+ */
+public class PredictionCache {
+
+    /** The size frames are shrunk to before hashing: one column more than the bits per row */
+    private static final Size HASH_SIZE = new Size(9, 8);
+
+    /** The reusable Mats and pixel array one thread needs to hash frames */
+    private static final class HashBuffers {
+        private final Mat small = new Mat();
+        private final Mat gray = new Mat();
+        private final byte[] pixels = new byte[9 * 8];
+    }
+
+    /** The largest number of predictions kept */
+    private final int capacity;
+
+    /** The largest number of differing hash bits still treated as the same frame */
+    private final int tolerance;
+
+    /** The cached predictions by frame hash, least recently used first; guarded by this */
+    private final LinkedHashMap<Long, Prediction> entries;
+
+    /** The number of lookups that found a prediction */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of lookups that found nothing */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The reusable buffers of each thread that hashes frames */
+    private final ThreadLocal<HashBuffers> hashBuffers = ThreadLocal.withInitial(HashBuffers::new);
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity the largest number of predictions kept
+     * @param tolerance the largest number of differing hash bits (0 to 64) still treated as the same frame
+     */
+    public PredictionCache(int capacity, int tolerance) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+
+        if (tolerance < 0 || tolerance > 64) {
+            throw new IllegalArgumentException("tolerance must be from 0 to 64");
+        }
+
+        this.capacity = capacity;
+        this.tolerance = tolerance;
+
+        // Access order makes the iteration order least recently used first, so the eldest entry is evicted
+        entries = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Prediction> eldest) {
+                return size() > PredictionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns whether hash() can compute the hash of a frame.
+     *
+     * @param frame the frame to check
+     * @return true if the frame is an 8-bit grayscale, BGR or BGRA frame
+     */
+    public static boolean canHash(Mat frame) {
+        int channels = frame.channels();
+        return frame.depth() == CvType.CV_8U && (channels == 1 || channels == 3 || channels == 4);
+    }
+
+    /**
+     * Computes the perceptual hash of a frame in native code.
+     *
+     * @param frame the 8-bit grayscale, BGR or BGRA frame
+     * @return the 64-bit difference hash
+     * @throws IllegalArgumentException if the frame is not 8-bit or has another number of channels
+     */
+    public long hash(Mat frame) {
+        // Other layouts would hash interleaved channel bytes or raw bytes instead of grey pixels
+        if (!canHash(frame)) {
+            throw new IllegalArgumentException("Only 8-bit grayscale, BGR or BGRA frames can be hashed, got type "
+                + frame.type());
+        }
+
+        HashBuffers buffers = hashBuffers.get();
+        Mat small = buffers.small;
+        Mat gray = buffers.gray;
+
+        // Shrink first so the colour conversion only touches 72 pixels
+        Imgproc.resize(frame, small, HASH_SIZE, 0, 0, Imgproc.INTER_AREA);
+
+        if (small.channels() == 3) {
+            Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+        }
+        else if (small.channels() == 4) {
+            Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGRA2GRAY);
+        }
+        else {
+            small.copyTo(gray);
+        }
+
+        // Read the 72 grey values; one row of 9 pixels gives 8 bits
+        byte[] pixels = buffers.pixels;
+        gray.get(0, 0, pixels);
+
+        long hash = 0;
+
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int left = pixels[row * 9 + col] & 0xff;
+                int right = pixels[row * 9 + col + 1] & 0xff;
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Finds a cached prediction for a frame hash.
+     * An exact match is tried first; otherwise the closest entry within the tolerance is used.
+     *
+     * @param hash the hash of the frame
+     * @return the cached prediction, or null if no cached frame is similar enough
+     */
+    public synchronized Prediction lookup(long hash) {
+        Prediction exact = entries.get(hash);
+
+        if (exact != null) {
+            hits.incrementAndGet();
+            return exact;
+        }
+
+        // Look for the most similar frame; the cache is small, so a linear scan is cheap
+        Long closest = null;
+        int closestDistance = tolerance + 1;
+
+        for (Long key : entries.keySet()) {
+            int distance = Long.bitCount(key ^ hash);
+
+            if (distance < closestDistance) {
+                closest = key;
+                closestDistance = distance;
+            }
+        }
+
+        if (closest == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        // get() marks the entry as recently used
+        return entries.get(closest);
+    }
+
+    /**
+     * Stores the prediction made for a frame hash, evicting the least recently used entry if full.
+     *
+     * @param hash the hash of the frame
+     * @param prediction the prediction made for the frame
+     */
+    public synchronized void store(long hash, Prediction prediction) {
+        entries.put(hash, prediction);
+    }
+
+    /**
+     * Removes every cached prediction, for example after the model changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached predictions.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups that found a prediction.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that found nothing.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the share of lookups that found a prediction.
+     *
+     * @return the hit rate from 0 to 1, or 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cache: size=%d hits=%d misses=%d hitRate=%.2f", size(), getHits(), getMisses(), getHitRate());
+    }
+}
@@ -0,0 +1,149 @@
+package com.codedotorg;
+
+/**
+ * Decides whether the model is sure enough about a frame to name a class.
+ * A frame is only classified if its best class scores at least the minimum score
+ * and leads the runner-up by at least the minimum margin; otherwise the prediction
+ * is unknown, so callers can skip frames where the model is guessing instead of
+ * acting on whichever class happened to come out on top.
+ * The static selection methods find the best classes of a softmax row in one pass
+ * without allocating, for use on every frame.
+ */
+public final class PredictionFilter {
+
+    /** The default score the best class needs */
+    public static final float DEFAULT_MIN_SCORE = 0.5f;
+
+    /** The default lead the best class needs over the runner-up */
+    public static final float DEFAULT_MIN_MARGIN = 0.2f;
+
+    /** The score the best class needs for the frame to be classified */
+    private final float minScore;
+
+    /** The lead over the second best class the best class needs for the frame to be classified */
+    private final float minMargin;
+
+    /**
+     * Constructs a PredictionFilter with the default score and margin.
+     */
+    public PredictionFilter() {
+        this(DEFAULT_MIN_SCORE, DEFAULT_MIN_MARGIN);
+    }
+
+    /**
+     * Constructs a PredictionFilter.
+     *
+     * @param minScore the softmax score the best class needs, from 0 to 1
+     * @param minMargin the lead over the second best class the best class needs, from 0 to 1
+     */
+    public PredictionFilter(float minScore, float minMargin) {
+        this.minScore = minScore;
+        this.minMargin = minMargin;
+    }
+
+    /**
+     * Returns the score the best class needs for the frame to be classified.
+     *
+     * @return the minimum score
+     */
+    public float getMinScore() {
+        return minScore;
+    }
+
+    /**
+     * Returns the lead over the second best class the best class needs.
+     *
+     * @return the minimum margin
+     */
+    public float getMinMargin() {
+        return minMargin;
+    }
+
+    /**
+     * Returns the class a row of softmax scores should be classified as.
+     *
+     * @param scores the array holding the softmax scores
+     * @param offset the position of the first score of the row
+     * @param length the number of classes in the row
+     * @return the index of the best class within the row, or Prediction.UNKNOWN if the model is not sure enough
+     */
+    public int classify(float[] scores, int offset, int length) {
+        // Track the two highest scores in one pass
+        int best = -1;
+        float first = -Float.MAX_VALUE;
+        float second = -Float.MAX_VALUE;
+
+        for (int i = 0; i < length; i++) {
+            float score = scores[offset + i];
+
+            if (score > first) {
+                second = first;
+                first = score;
+                best = i;
+            }
+            else if (score > second) {
+                second = score;
+            }
+        }
+
+        // With a single class there is no runner-up, so only the score counts
+        float margin = length > 1 ? first - second : first;
+
+        if (best < 0 || first < minScore || margin < minMargin) {
+            return Prediction.UNKNOWN;
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds the highest scoring classes of a row of softmax scores, best first.
+     * Keeps the k best seen so far in the caller's arrays, so it takes one pass over
+     * the row and does not allocate. Ties keep the lower class index first.
+     *
+     * @param scores the array holding the softmax scores
+     * @param offset the position of the first score of the row
+     * @param length the number of classes in the row
+     * @param k the number of classes to find
+     * @param topClasses receives the indexes of the best classes; must hold at least k values
+     * @param topScores receives the scores of the best classes; must hold at least k values
+     * @return the number of classes found, which is k unless the row has fewer classes
+     * @throws IllegalArgumentException if k is negative or larger than either output array
+     */
+    public static int selectTopK(float[] scores, int offset, int length, int k, int[] topClasses, float[] topScores) {
+        if (k < 0 || k > topClasses.length || k > topScores.length) {
+            throw new IllegalArgumentException("Cannot select the top " + k + " classes into arrays of "
+                + topClasses.length + " and " + topScores.length + " values");
+        }
+
+        int found = 0;
+
+        for (int i = 0; i < length; i++) {
+            float score = scores[offset + i];
+
+            // Skip classes that would not make it into a full list
+            if (found == k && (k == 0 || score <= topScores[k - 1])) {
+                continue;
+            }
+
+            // Shift the lower scores down to make room, dropping the last one if the list is full
+            int position = found < k ? found++ : k - 1;
+
+            while (position > 0 && topScores[position - 1] < score) {
+                topScores[position] = topScores[position - 1];
+                topClasses[position] = topClasses[position - 1];
+                position--;
+            }
+
+            topScores[position] = score;
+            topClasses[position] = i;
+        }
+
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        return "filter: minScore=" + minScore + " minMargin=" + minMargin;
+    }
+}
@@ -0,0 +1,182 @@
+package com.codedotorg;
+
+import java.util.function.Consumer;
+
+/**
+ * Turns the noisy per-frame predictions of the camera into stable decisions.
+ * The softmax of every frame is folded into an exponential moving average, and a
+ * decision is emitted once one class has led the average above the confidence
+ * threshold for a number of consecutive frames. The same class is not decided
+ * again until the average has dropped below the threshold or another class took
+ * over, so holding a gesture in front of the camera produces a single decision.
+ * Unknown predictions are skipped, so frames the model was unsure about cost nothing here.
+ */
+public class PredictionSmoother implements Consumer<Prediction> {
+
+    /** The default weight of the newest frame in the moving average */
+    public static final double DEFAULT_SMOOTHING = 0.3;
+
+    /** The default smoothed score a class needs to count towards a decision */
+    public static final float DEFAULT_THRESHOLD = 0.8f;
+
+    /** The default number of consecutive frames a class must lead before it is decided */
+    public static final int DEFAULT_HOLD_FRAMES = 5;
+
+    /** The weight of the newest frame in the moving average, from 0 to 1 */
+    private final double smoothing;
+
+    /** The smoothed score a class needs to count towards a decision */
+    private final float threshold;
+
+    /** The number of consecutive frames a class must lead before it is decided */
+    private final int holdFrames;
+
+    /** Receives every stable decision */
+    private final Consumer<Prediction> decisionListener;
+
+    /** The moving average of the softmax, or null before the first frame; guarded by this */
+    private float[] average;
+
+    /** The class leading the average above the threshold, or -1; guarded by this */
+    private int leader = -1;
+
+    /** The number of consecutive frames the leader has led; guarded by this */
+    private int streak;
+
+    /** The class decided last, or -1 if the next leader may be decided; guarded by this */
+    private int decided = -1;
+
+    /**
+     * Constructs a PredictionSmoother with the default smoothing, threshold and hold.
+     *
+     * @param decisionListener receives every stable decision
+     */
+    public PredictionSmoother(Consumer<Prediction> decisionListener) {
+        this(DEFAULT_SMOOTHING, DEFAULT_THRESHOLD, DEFAULT_HOLD_FRAMES, decisionListener);
+    }
+
+    /**
+     * Constructs a PredictionSmoother.
+     * The listener is called on the thread that passes in the predictions,
+     * so JavaFX apps should hand the decision to Platform.runLater().
+     *
+     * @param smoothing the weight of the newest frame in the moving average, greater than 0 and at most 1
+     * @param threshold the smoothed score a class needs to count towards a decision, from 0 to 1
+     * @param holdFrames the number of consecutive frames a class must lead before it is decided, at least 1
+     * @param decisionListener receives every stable decision
+     * @throws IllegalArgumentException if an argument is out of range or the listener is null
+     */
+    public PredictionSmoother(double smoothing, float threshold, int holdFrames, Consumer<Prediction> decisionListener) {
+        // A weight of 0 would freeze the average and one above 1 would make it overshoot every frame
+        if (!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("smoothing must be greater than 0 and at most 1");
+        }
+
+        if (!(threshold >= 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("threshold must be from 0 to 1");
+        }
+
+        if (holdFrames < 1) {
+            throw new IllegalArgumentException("holdFrames must be at least 1");
+        }
+
+        if (decisionListener == null) {
+            throw new IllegalArgumentException("decisionListener must not be null");
+        }
+
+        this.smoothing = smoothing;
+        this.threshold = threshold;
+        this.holdFrames = holdFrames;
+        this.decisionListener = decisionListener;
+    }
+
+    /**
+     * Folds the softmax of one frame into the moving average and emits a decision
+     * if a class has now led for long enough. Does not allocate unless a decision is made.
+     *
+     * @param prediction the prediction for one frame
+     */
+    @Override
+    public void accept(Prediction prediction) {
+        Prediction decision = update(prediction);
+
+        // Call the listener outside the lock so a slow listener does not hold up other frames
+        if (decision != null) {
+            decisionListener.accept(decision);
+        }
+    }
+
+    /**
+     * Forgets the moving average and the last decision, for example when a new round starts.
+     */
+    public synchronized void reset() {
+        average = null;
+        leader = -1;
+        streak = 0;
+        decided = -1;
+    }
+
+    /**
+     * Updates the moving average and the leading class with one frame.
+     *
+     * @param prediction the prediction for one frame
+     * @return the decision to emit, or null if no class has been decided
+     */
+    private synchronized Prediction update(Prediction prediction) {
+        // Frames the model was unsure about neither move the average nor break a streak
+        if (prediction.isUnknown()) {
+            return null;
+        }
+
+        int classCount = prediction.getClassCount();
+
+        // Start the average from the first frame, or again if the model's classes changed
+        if (average == null || average.length != classCount) {
+            average = prediction.getScores();
+            leader = -1;
+            streak = 0;
+            decided = -1;
+        }
+        else {
+            for (int i = 0; i < classCount; i++) {
+                average[i] += smoothing * (prediction.getScore(i) - average[i]);
+            }
+        }
+
+        // Find the class with the highest smoothed score
+        int top = 0;
+
+        for (int i = 1; i < classCount; i++) {
+            if (average[i] > average[top]) {
+                top = i;
+            }
+        }
+
+        // A class only leads while it is above the threshold and agrees with the current frame
+        if (average[top] < threshold || top != prediction.getClassIndex()) {
+            leader = -1;
+            streak = 0;
+
+            // Allow the same class to be decided again once its lead has been lost
+            if (average[top] < threshold) {
+                decided = -1;
+            }
+
+            return null;
+        }
+
+        if (top != leader) {
+            leader = top;
+            streak = 0;
+        }
+
+        streak++;
+
+        if (streak < holdFrames || top == decided) {
+            return null;
+        }
+
+        decided = top;
+        return new Prediction(prediction.getLabel(), top, average[top], average);
+    }
+}
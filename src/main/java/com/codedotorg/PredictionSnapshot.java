@@ -0,0 +1,88 @@
+package com.codedotorg;
+
+/**
+ * An immutable record of the latest prediction together with the frame it was made from.
+ * The camera controller publishes a new snapshot for every classified frame as one
+ * reference, so readers always see a prediction, sequence number and timestamps that
+ * belong together, without taking a lock.
+ */
+public final class PredictionSnapshot {
+
+    /** The prediction made for the frame */
+    private final Prediction prediction;
+
+    /** The number of the classified frame, counted from 0 by the capture loop */
+    private final long sequence;
+
+    /** The System.nanoTime() at which the frame was read */
+    private final long captureNanos;
+
+    /** The System.nanoTime() at which the prediction was published */
+    private final long publishNanos;
+
+    /**
+     * Constructs a PredictionSnapshot.
+     *
+     * @param prediction the prediction made for the frame
+     * @param sequence the number of the classified frame
+     * @param captureNanos the System.nanoTime() at which the frame was read
+     * @param publishNanos the System.nanoTime() at which the prediction was published
+     */
+    public PredictionSnapshot(Prediction prediction, long sequence, long captureNanos, long publishNanos) {
+        this.prediction = prediction;
+        this.sequence = sequence;
+        this.captureNanos = captureNanos;
+        this.publishNanos = publishNanos;
+    }
+
+    /**
+     * Returns the prediction made for the frame.
+     *
+     * @return the prediction holding the label, class index, score and softmax
+     */
+    public Prediction getPrediction() {
+        return prediction;
+    }
+
+    /**
+     * Returns the number of the classified frame.
+     * Numbers increase with every captured frame, so frames skipped by the model leave gaps.
+     *
+     * @return the sequence number counted from 0 by the capture loop
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time the frame was read.
+     *
+     * @return the System.nanoTime() at which the frame was read
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Returns the time the prediction was published.
+     *
+     * @return the System.nanoTime() at which the prediction was published
+     */
+    public long getPublishNanos() {
+        return publishNanos;
+    }
+
+    /**
+     * Returns how old the frame was when its prediction was published.
+     *
+     * @return the time from capture to publication in nanoseconds
+     */
+    public long getLatencyNanos() {
+        return publishNanos - captureNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + prediction + String.format(" (%.1f ms)", getLatencyNanos() / 1e6);
+    }
+}
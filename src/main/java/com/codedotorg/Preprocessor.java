@@ -0,0 +1,214 @@
+package com.codedotorg;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Turns a camera frame into the float image the model expects.
+ * Every step runs in native OpenCV: an optional crop, a resize to the model's
+ * input size, a conversion to three RGB channels and the conversion to scaled floats.
+ * A Preprocessor only holds its settings, so one instance can be shared by
+ * every thread; the intermediate Mats belong to each thread's InferenceBuffers.
+ */
+public final class Preprocessor {
+
+    /** How the frame is cropped before it is resized */
+    public enum CropMode {
+        /** Resize the whole frame, stretching it to the model's aspect ratio */
+        NONE,
+
+        /** Crop the largest centered square before resizing */
+        CENTER,
+
+        /** Crop a fixed region of interest before resizing */
+        ROI
+    }
+
+    /** How the frame is cropped before it is resized */
+    private final CropMode cropMode;
+
+    /** The region of interest used when cropMode is ROI */
+    private final Rect roi;
+
+    /** The input width of the model */
+    private final int width;
+
+    /** The input height of the model */
+    private final int height;
+
+    /** The input size of the model, kept so it is not rebuilt for every frame */
+    private final Size inputSize;
+
+    /** Whether the BGR frames from VideoCapture are converted to RGB */
+    private final boolean convertToRgb;
+
+    /** The factor each pixel value is multiplied by */
+    private final double scale;
+
+    /** The value added to each pixel after it is scaled */
+    private final double offset;
+
+    /**
+     * Constructs a Preprocessor that center crops, resizes to the given size,
+     * converts to RGB and normalizes pixel values to [0, 1].
+     *
+     * @param width the input width of the model
+     * @param height the input height of the model
+     */
+    public Preprocessor(int width, int height) {
+        this(CropMode.CENTER, null, width, height, true, 1 / 255.0, 0);
+    }
+
+    /**
+     * Constructs a Preprocessor with every setting given explicitly.
+     *
+     * @param cropMode how the frame is cropped before it is resized
+     * @param roi the region of interest, only used when cropMode is ROI
+     * @param width the input width of the model
+     * @param height the input height of the model
+     * @param convertToRgb whether BGR frames are converted to RGB
+     * @param scale the factor each pixel value is multiplied by
+     * @param offset the value added to each pixel after it is scaled
+     */
+    public Preprocessor(CropMode cropMode, Rect roi, int width, int height,
+            boolean convertToRgb, double scale, double offset) {
+        if (cropMode == CropMode.ROI && roi == null) {
+            throw new IllegalArgumentException("A region of interest is required for ROI cropping");
+        }
+
+        this.cropMode = cropMode;
+        this.roi = roi == null ? null : roi.clone();
+        this.width = width;
+        this.height = height;
+        this.inputSize = new Size(width, height);
+        this.convertToRgb = convertToRgb;
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns the input width of the model.
+     *
+     * @return the width of the preprocessed image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the input height of the model.
+     *
+     * @return the height of the preprocessed image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns how the frame is cropped before it is resized.
+     *
+     * @return the crop mode
+     */
+    public CropMode getCropMode() {
+        return cropMode;
+    }
+
+    /**
+     * Crops, resizes, converts and normalizes a frame.
+     * The result is one of the thread's reusable Mats and stays valid until
+     * the same thread preprocesses its next frame.
+     *
+     * @param frame the BGR camera frame; grayscale and BGRA frames are converted to three channels
+     * @param threadBuffers the reusable Mats of the current thread
+     * @return a continuous three-channel CV_32F image of the model's input size
+     */
+    Mat process(Mat frame, InferenceBuffers threadBuffers) {
+        // Select the part of the frame the model should see, reusing the region and view of earlier frames
+        int frameWidth = frame.width();
+        int frameHeight = frame.height();
+
+        if (!threadBuffers.hasCrop(this, frameWidth, frameHeight)) {
+            threadBuffers.setCrop(this, frameWidth, frameHeight, findCrop(frameWidth, frameHeight));
+        }
+
+        Mat source = threadBuffers.crop() == null ? frame : threadBuffers.cropView(frame);
+
+        // Resize to the model's input size; INTER_AREA averages pixels when shrinking
+        Mat resized = threadBuffers.resized();
+        Imgproc.resize(source, resized, inputSize, 0, 0, Imgproc.INTER_AREA);
+
+        // Bring the frame to the three channels the model expects, in the RGB order it was trained on
+        Mat colored = resized;
+        int conversion = findConversion(resized.channels());
+
+        if (conversion >= 0) {
+            colored = threadBuffers.converted();
+            Imgproc.cvtColor(resized, colored, conversion);
+        }
+
+        // Convert to floats and normalize in the same pass
+        Mat normalized = threadBuffers.normalized();
+        colored.convertTo(normalized, CvType.CV_32F, scale, offset);
+
+        return normalized;
+    }
+
+    /**
+     * Finds the color conversion that turns a frame with the given number of channels into
+     * a three-channel image, so grayscale and BGRA frames give samples of the same length
+     * as BGR frames.
+     *
+     * @param channels the number of channels of the frame
+     * @return the Imgproc conversion code, or -1 if the frame is used as it is
+     */
+    private int findConversion(int channels) {
+        if (channels == 1) {
+            return convertToRgb ? Imgproc.COLOR_GRAY2RGB : Imgproc.COLOR_GRAY2BGR;
+        }
+
+        if (channels == 4) {
+            return convertToRgb ? Imgproc.COLOR_BGRA2RGB : Imgproc.COLOR_BGRA2BGR;
+        }
+
+        if (channels == 3 && convertToRgb) {
+            return Imgproc.COLOR_BGR2RGB;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the region of the frame to keep, clamped to the frame bounds.
+     *
+     * @param frameWidth the width of the camera frame
+     * @param frameHeight the height of the camera frame
+     * @return the region to crop, or null if the whole frame is used
+     */
+    private Rect findCrop(int frameWidth, int frameHeight) {
+        if (cropMode == CropMode.CENTER) {
+            // Keep the largest square in the middle of the frame
+            int side = Math.min(frameWidth, frameHeight);
+
+            if (side == frameWidth && side == frameHeight) {
+                return null;
+            }
+
+            return new Rect((frameWidth - side) / 2, (frameHeight - side) / 2, side, side);
+        }
+
+        if (cropMode == CropMode.ROI) {
+            // Clamp the region of interest so it never reaches outside the frame
+            int x = Math.max(0, Math.min(roi.x, frameWidth - 1));
+            int y = Math.max(0, Math.min(roi.y, frameHeight - 1));
+            int w = Math.max(1, Math.min(roi.width, frameWidth - x));
+            int h = Math.max(1, Math.min(roi.height, frameHeight - y));
+
+            return new Rect(x, y, w, h);
+        }
+
+        return null;
+    }
+}
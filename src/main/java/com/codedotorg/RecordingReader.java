@@ -0,0 +1,543 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * Reads a recording written by FrameRecorder and replays it through a model.
+ * The index and segments are memory-mapped, so opening a long recording is quick and
+ * frames are only read from disk when they are used. Replaying runs every recorded
+ * frame through a ModelManager as fast as it can and compares the new softmax scores
+ * and inference times with the recorded ones, which shows how far a retrained model
+ * drifts from the one that was running in the field. Frames the recorder downscaled
+ * are left out of the comparison, since the model in the field saw them at full size.
+ * A reader is meant to be used by one thread at a time.
+ */
+public class RecordingReader implements AutoCloseable {
+
+    /** The bytes of a record before its softmax scores: three longs, the class index, score and class count */
+    private static final int RECORD_HEADER_BYTES = 3 * Long.BYTES + 3 * Integer.BYTES;
+
+    /** The directory of the recording */
+    private final Path directory;
+
+    /** The format version of the recording, which decides whether records hold the classified frame size */
+    private final int formatVersion;
+
+    /** The entries of the index, after its header */
+    private final ByteBuffer index;
+
+    /** The number of recorded frames */
+    private final int frameCount;
+
+    /** The mapped segments, by number, or null for segments that have not been used yet */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /** The pixels of the frame being read */
+    private byte[] pixelBuffer = new byte[0];
+
+    /**
+     * Summarizes a replay: how often the replayed model agreed with the recording,
+     * how far its softmax scores drifted and how long it took compared with the recording.
+     */
+    public static final class ReplayReport {
+        private final LatencyHistogram recordedLatency = new LatencyHistogram();
+        private final LatencyHistogram replayedLatency = new LatencyHistogram();
+        private int compared;
+        private int agreed;
+        private int failed;
+        private int downscaled;
+        private boolean sourceSizeUnknown;
+        private double driftSum;
+        private double maxDrift;
+
+        /**
+         * Returns the number of frames replayed and compared with the recording.
+         *
+         * @return the compared frame count
+         */
+        public int getComparedCount() {
+            return compared;
+        }
+
+        /**
+         * Returns the number of frames where the replayed model picked the same class as the recording.
+         *
+         * @return the agreeing frame count
+         */
+        public int getAgreedCount() {
+            return agreed;
+        }
+
+        /**
+         * Returns the number of frames that could not be read, run or compared.
+         *
+         * @return the failed frame count
+         */
+        public int getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * Returns the number of frames left out because the recorder stored them downscaled,
+         * so their scores would mix the lost resolution into the model's drift.
+         *
+         * @return the downscaled frame count
+         */
+        public int getDownscaledCount() {
+            return downscaled;
+        }
+
+        /**
+         * Returns whether the recording does not say which frames were downscaled, as with
+         * recordings of format version 1, so the drift may include lost resolution.
+         *
+         * @return true if downscaled frames could not be told apart
+         */
+        public boolean isSourceSizeUnknown() {
+            return sourceSizeUnknown;
+        }
+
+        /**
+         * Returns the mean over the compared frames of the largest score difference of any class.
+         *
+         * @return the mean drift, from 0 to 1
+         */
+        public double getMeanDrift() {
+            return compared == 0 ? 0 : driftSum / compared;
+        }
+
+        /**
+         * Returns the largest score difference of any class in any frame.
+         *
+         * @return the largest drift, from 0 to 1
+         */
+        public double getMaxDrift() {
+            return maxDrift;
+        }
+
+        /**
+         * Returns the inference times recorded in the field.
+         *
+         * @return the histogram of recorded inference times
+         */
+        public LatencyHistogram getRecordedLatency() {
+            return recordedLatency;
+        }
+
+        /**
+         * Returns the inference times of the replay.
+         *
+         * @return the histogram of replayed inference times
+         */
+        public LatencyHistogram getReplayedLatency() {
+            return replayedLatency;
+        }
+
+        @Override
+        public String toString() {
+            String report = String.format("replayed %d frames (%d failed): %.1f%% same class, drift mean=%.4f max=%.4f%n"
+                + "recorded inference ms: mean=%.2f p50=%.2f p99=%.2f%n"
+                + "replayed inference ms: mean=%.2f p50=%.2f p99=%.2f",
+                compared, failed, compared == 0 ? 0 : 100.0 * agreed / compared, getMeanDrift(), maxDrift,
+                recordedLatency.getMean() / 1e6, recordedLatency.getPercentile(50) / 1e6,
+                recordedLatency.getPercentile(99) / 1e6,
+                replayedLatency.getMean() / 1e6, replayedLatency.getPercentile(50) / 1e6,
+                replayedLatency.getPercentile(99) / 1e6);
+
+            if (downscaled > 0) {
+                report += String.format("%nwarning: %d downscaled frames were left out; record with maxWidth 0 to compare them",
+                    downscaled);
+            }
+
+            if (sourceSizeUnknown) {
+                report += String.format("%nwarning: the recording does not say which frames were downscaled,"
+                    + " so the drift may include lost resolution");
+            }
+
+            return report;
+        }
+    }
+
+    /**
+     * Constructs a RecordingReader over an opened index.
+     *
+     * @param directory the directory of the recording
+     * @param formatVersion the format version of the recording
+     * @param index the entries of the index
+     */
+    private RecordingReader(Path directory, int formatVersion, ByteBuffer index) {
+        this.directory = directory;
+        this.formatVersion = formatVersion;
+        this.index = index;
+
+        // A recording that was not closed properly ends at the first entry without a length
+        int count = 0;
+
+        while (count < index.limit() / FrameRecorder.INDEX_ENTRY_BYTES
+                && index.getInt(count * FrameRecorder.INDEX_ENTRY_BYTES + 2 * Integer.BYTES) != 0) {
+            count++;
+        }
+
+        this.frameCount = count;
+    }
+
+    /**
+     * Opens a recording.
+     * Prints an error message and stack trace to the console if the recording cannot be read.
+     *
+     * @param directory the directory written by a FrameRecorder
+     * @return the reader, or null if the recording could not be opened
+     */
+    public static RecordingReader open(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory.resolve(FrameRecorder.INDEX_FILE), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (mapped.limit() < FrameRecorder.INDEX_HEADER_BYTES || mapped.getInt(0) != FrameRecorder.MAGIC) {
+                throw new IOException(directory + " is not a recording");
+            }
+
+            // Version 1 only lacks the classified frame size, so it can still be replayed
+            int formatVersion = mapped.getInt(Integer.BYTES);
+
+            if (formatVersion < 1 || formatVersion > FrameRecorder.FORMAT_VERSION) {
+                throw new IOException("Unsupported recording format " + formatVersion);
+            }
+
+            mapped.position(FrameRecorder.INDEX_HEADER_BYTES);
+            return new RecordingReader(directory, formatVersion, mapped.slice());
+        } catch (IOException e) {
+            System.err.println("Failed to open the recording");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of recorded frames.
+     *
+     * @return the frame count
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the sequence number of a recorded frame.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the frame's sequence number
+     */
+    public long getSequence(int frame) {
+        return index.getLong(entry(frame) + 4 * Integer.BYTES);
+    }
+
+    /**
+     * Returns the capture time of a recorded frame.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the System.nanoTime() at which the frame was read
+     */
+    public long getCaptureNanos(int frame) {
+        return index.getLong(entry(frame) + 4 * Integer.BYTES + Long.BYTES);
+    }
+
+    /**
+     * Returns the class predicted for a recorded frame, read from the index alone.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the recorded class index, or Prediction.UNKNOWN
+     */
+    public int getClassIndex(int frame) {
+        return index.getInt(entry(frame) + 3 * Integer.BYTES);
+    }
+
+    /**
+     * Returns how long the model took for a recorded frame when it was recorded.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the recorded inference time in nanoseconds
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    public long getInferenceNanos(int frame) throws IOException {
+        return record(frame).getLong(2 * Long.BYTES);
+    }
+
+    /**
+     * Reads the prediction recorded for a frame.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the recorded prediction
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    public Prediction readPrediction(int frame) throws IOException {
+        ByteBuffer record = record(frame);
+        record.position(3 * Long.BYTES);
+
+        int classIndex = record.getInt();
+        float score = record.getFloat();
+        float[] scores = new float[record.getInt()];
+
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = record.getFloat();
+        }
+
+        byte[] label = new byte[record.getShort()];
+        record.get(label);
+
+        return new Prediction(new String(label, StandardCharsets.UTF_8), classIndex, score, scores);
+    }
+
+    /**
+     * Returns whether the recorder stored a frame smaller than the frame that was classified.
+     * Recordings of format version 1 do not say, so their frames are reported as full size.
+     *
+     * @param frame the position of the frame in the recording
+     * @return true if the stored frame was downscaled
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    public boolean isDownscaled(int frame) throws IOException {
+        if (formatVersion < 2) {
+            return false;
+        }
+
+        ByteBuffer record = frameHeader(frame);
+        int sourceRows = record.getInt();
+        int sourceCols = record.getInt();
+
+        return record.getInt() != sourceRows || record.getInt() != sourceCols;
+    }
+
+    /**
+     * Reads the pixels of a recorded frame into a Mat, reallocating it only when its size or type changes.
+     *
+     * @param frame the position of the frame in the recording
+     * @param pixels the Mat to fill
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    public void readFrame(int frame, Mat pixels) throws IOException {
+        ByteBuffer record = frameHeader(frame);
+
+        // Skip the classified frame size to reach the stored one
+        if (formatVersion >= 2) {
+            record.position(record.position() + 2 * Integer.BYTES);
+        }
+
+        int rows = record.getInt();
+        int cols = record.getInt();
+        int type = record.getInt();
+        int length = record.getInt();
+
+        if (pixelBuffer.length < length) {
+            pixelBuffer = new byte[length];
+        }
+
+        record.get(pixelBuffer, 0, length);
+        pixels.create(rows, cols, type);
+        pixels.put(0, 0, pixelBuffer, 0, length);
+    }
+
+    /**
+     * Returns a view of a frame's record positioned after its scores and label, where the frame sizes start.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the record, positioned at the frame sizes
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    private ByteBuffer frameHeader(int frame) throws IOException {
+        ByteBuffer record = record(frame);
+
+        // Skip the scores and the label to reach the pixels
+        int classCount = record.getInt(RECORD_HEADER_BYTES - Integer.BYTES);
+        int labelPosition = RECORD_HEADER_BYTES + classCount * Float.BYTES;
+        record.position(labelPosition + Short.BYTES + record.getShort(labelPosition));
+
+        return record;
+    }
+
+    /**
+     * Runs every recorded frame through a model as fast as possible and compares the
+     * results with the recording. The prediction cache and filter of the model are not
+     * used, so the raw scores of both models are compared. Frames the recorder downscaled
+     * are counted but not run, since their scores would mix lost resolution into the drift.
+     *
+     * @param model the model to replay the recording through
+     * @return the comparison of the replay with the recording
+     */
+    public ReplayReport replay(ModelManager model) {
+        ReplayReport report = new ReplayReport();
+        LabelTable labels = model.getLabelTable();
+
+        if (labels == null) {
+            report.failed = frameCount;
+            return report;
+        }
+
+        Mat frame = new Mat();
+        float[] scores = new float[labels.size()];
+        report.sourceSizeUnknown = formatVersion < 2 && frameCount > 0;
+
+        for (int i = 0; i < frameCount; i++) {
+            try {
+                // The field model saw the full frame, so a downscaled copy cannot show how the models differ
+                if (isDownscaled(i)) {
+                    report.downscaled++;
+                    continue;
+                }
+
+                Prediction recorded = readPrediction(i);
+                readFrame(i, frame);
+
+                long start = System.nanoTime();
+                int classIndex = model.predictInto(frame, scores);
+                long replayed = System.nanoTime() - start;
+
+                // Frames the model failed on, or recorded with other classes, cannot be compared
+                if (classIndex < 0 || recorded.getClassCount() != scores.length) {
+                    report.failed++;
+                    continue;
+                }
+
+                report.replayedLatency.record(replayed);
+                report.recordedLatency.record(getInferenceNanos(i));
+                report.compared++;
+
+                // Compare the best classes, ignoring whether either run called the frame unknown
+                double drift = 0;
+                int recordedBest = 0;
+
+                for (int c = 0; c < scores.length; c++) {
+                    drift = Math.max(drift, Math.abs(recorded.getScore(c) - scores[c]));
+
+                    if (recorded.getScore(c) > recorded.getScore(recordedBest)) {
+                        recordedBest = c;
+                    }
+                }
+
+                if (recordedBest == classIndex) {
+                    report.agreed++;
+                }
+
+                report.driftSum += drift;
+                report.maxDrift = Math.max(report.maxDrift, drift);
+            } catch (IOException e) {
+                report.failed++;
+            }
+        }
+
+        frame.release();
+        return report;
+    }
+
+    /**
+     * Returns the directory of the recording.
+     *
+     * @return the recording directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Lets go of the mapped segments. The memory is unmapped once they are garbage collected.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+
+    /**
+     * Returns the position of a frame's entry in the index.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the byte offset of the entry
+     */
+    private int entry(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        }
+
+        return frame * FrameRecorder.INDEX_ENTRY_BYTES;
+    }
+
+    /**
+     * Returns a view of a frame's record, with position 0 at the start of the record.
+     *
+     * @param frame the position of the frame in the recording
+     * @return the record
+     * @throws IOException if the frame's segment cannot be mapped
+     */
+    private ByteBuffer record(int frame) throws IOException {
+        int entry = entry(frame);
+        int segmentNumber = index.getInt(entry);
+        int offset = index.getInt(entry + Integer.BYTES);
+        int length = index.getInt(entry + 2 * Integer.BYTES);
+
+        ByteBuffer record = segment(segmentNumber).duplicate();
+        record.position(offset).limit(offset + length);
+        return record.slice();
+    }
+
+    /**
+     * Returns a mapped segment, mapping it the first time it is used.
+     *
+     * @param number the number of the segment
+     * @return the segment's memory
+     * @throws IOException if the segment cannot be mapped
+     */
+    private MappedByteBuffer segment(int number) throws IOException {
+        while (segments.size() <= number) {
+            segments.add(null);
+        }
+
+        MappedByteBuffer segment = segments.get(number);
+
+        if (segment == null) {
+            // The mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(directory.resolve(FrameRecorder.segmentName(number)),
+                    StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            segments.set(number, segment);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Replays a recording through a model and prints how far its predictions and
+     * inference times drift from the recorded ones.
+     *
+     * @param args the recording directory, and optionally the model directory to replay through
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: RecordingReader <recording directory> [model directory]");
+            return;
+        }
+
+        RecordingReader reader = open(Paths.get(args[0]));
+
+        if (reader == null) {
+            return;
+        }
+
+        ModelManager model = (args.length > 1 ? ModelManager.loadAsync(args[1]) : ModelManager.loadAsync()).join();
+
+        System.out.println(reader.getFrameCount() + " frames recorded in " + reader.getDirectory());
+        System.out.println(reader.replay(model));
+        reader.close();
+        model.close();
+    }
+}
@@ -0,0 +1,185 @@
+package com.codedotorg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache for files that are packaged inside the jar but must exist as real files,
+ * such as the SavedModel and the OpenCV native library. Files are copied out once and found
+ * again on later starts. Every entry is written to a temporary path first and moved into place
+ * in one step, so a crash or a second process starting at the same time never leaves a
+ * half-written entry behind.
+ */
+final class ResourceCache {
+
+    private ResourceCache() {
+    }
+
+    /**
+     * Returns the cache directory, set with -Dtmexample.cache.dir or ~/.cache/tmexample by default.
+     *
+     * @return the cache directory, which may not exist yet
+     */
+    static Path getRoot() {
+        String configured = System.getProperty("tmexample.cache.dir");
+
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+
+        return Paths.get(System.getProperty("user.home"), ".cache", "tmexample");
+    }
+
+    /**
+     * Copies a classpath resource to a file, checking its size and SHA-256 checksum on the way.
+     *
+     * @param resource the absolute classpath resource name
+     * @param target the file to write
+     * @param expectedSha256 the expected checksum in lowercase hex, or null to skip the check
+     * @param expectedSize the expected size in bytes, or -1 to skip the check
+     * @return the checksum of the copied bytes in lowercase hex
+     * @throws IOException if the resource is missing, cannot be copied or does not match
+     */
+    static String copyResource(String resource, Path target, String expectedSha256, long expectedSize) throws IOException {
+        MessageDigest digest = newSha256();
+
+        try (InputStream stream = ResourceCache.class.getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new IOException("Missing resource " + resource);
+            }
+
+            Files.createDirectories(target.getParent());
+            long size = Files.copy(new DigestInputStream(stream, digest), target, StandardCopyOption.REPLACE_EXISTING);
+
+            if (expectedSize >= 0 && size != expectedSize) {
+                throw new IOException(resource + " has " + size + " bytes, expected " + expectedSize);
+            }
+        }
+
+        String checksum = toHex(digest.digest());
+
+        if (expectedSha256 != null && !expectedSha256.equals(checksum)) {
+            throw new IOException(resource + " has checksum " + checksum + ", expected " + expectedSha256);
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Moves a fully written temporary file or directory to its final place in the cache.
+     * If another process installed the same entry first, the temporary copy is deleted and
+     * the existing entry is kept.
+     *
+     * @param temporary the fully written file or directory
+     * @param target the final path of the entry
+     * @throws IOException if the entry cannot be moved into place
+     */
+    static void install(Path temporary, Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            delete(temporary);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Fall back to a plain move on file systems without atomic renames
+            Files.move(temporary, target);
+        } catch (IOException e) {
+            // Renaming onto a directory that is not empty fails when another process won the race
+            if (!Files.exists(target)) {
+                throw e;
+            }
+
+            delete(temporary);
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with everything in it, ignoring files that are already gone.
+     *
+     * @param path the file or directory to delete
+     * @throws IOException if something cannot be deleted
+     */
+    static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(path)) {
+            // Delete the deepest paths first so directories are empty when their turn comes
+            for (Path each : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(each);
+            }
+        }
+    }
+
+    /**
+     * Computes the SHA-256 checksum of some bytes.
+     *
+     * @param bytes the bytes to hash
+     * @return the checksum in lowercase hex
+     */
+    static String sha256(byte[] bytes) {
+        return toHex(newSha256().digest(bytes));
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a file, reading it in chunks.
+     *
+     * @param file the file to hash
+     * @return the checksum in lowercase hex
+     * @throws IOException if the file cannot be read
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] chunk = new byte[64 * 1024];
+
+        try (InputStream stream = Files.newInputStream(file)) {
+            int read;
+
+            while ((read = stream.read(chunk)) > 0) {
+                digest.update(chunk, 0, read);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Creates a SHA-256 digest, which every Java platform is required to support.
+     *
+     * @return a new digest
+     */
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Formats bytes as lowercase hex.
+     *
+     * @param bytes the bytes to format
+     * @return two hex digits per byte
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return hex.toString();
+    }
+}
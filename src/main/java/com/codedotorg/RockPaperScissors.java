@@ -1,8 +1,8 @@
 package com.codedotorg;
 
-import javafx.animation.KeyFrame;
+import java.util.concurrent.CompletableFuture;
+
 import javafx.animation.PauseTransition;
-import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -14,6 +14,45 @@ import javafx.util.Duration;
 
 public class RockPaperScissors {
 
+    /** The move a gesture stands for, as an index into the tables below */
+    private static final int ROCK = 0;
+    private static final int PAPER = 1;
+    private static final int SCISSORS = 2;
+
+    /** The class names of the moves, in move order */
+    private static final String[] MOVE_NAMES = {"rock", "paper", "scissors"};
+
+    /** The moves in the same order as MOVE_NAMES */
+    private static final int[] MOVES = {ROCK, PAPER, SCISSORS};
+
+    /** The outcome of a round for the user, as an index into OUTCOME_TEXT */
+    private static final int TIE = 0;
+    private static final int WIN = 1;
+    private static final int LOSE = 2;
+
+    /** The text shown for each outcome */
+    private static final String[] OUTCOME_TEXT = {"Tie!", "You win!", "You lose :("};
+
+    /** The outcome for the user, by the user's move and then the computer's move */
+    private static final int[][] OUTCOMES = {
+        // Computer: rock, paper, scissors
+        {TIE, LOSE, WIN},  // User: rock
+        {WIN, TIE, LOSE},  // User: paper
+        {LOSE, WIN, TIE}   // User: scissors
+    };
+
+    /** The result text of every round, by the user's move and then the computer's move */
+    private static final String[][] RESULT_TEXT = new String[MOVES.length][MOVES.length];
+
+    static {
+        for (int user : MOVES) {
+            for (int computer : MOVES) {
+                RESULT_TEXT[user][computer] = "Computer choice: " + MOVE_NAMES[computer] + "\n"
+                    + OUTCOME_TEXT[OUTCOMES[user][computer]];
+            }
+        }
+    }
+
     /** The main window of the app */
     private Stage window;
 
@@ -24,9 +63,20 @@ public class RockPaperScissors {
     private Label predictionLabel;
 
     private Label promptLabel;
-    private String userChoice;
-    private String computerChoice;
-    private String[] options;
+    private int userMove;
+    private int computerMove;
+
+    /** The labels the move table was built from */
+    private LabelTable labelTable;
+
+    /** The move of each class of the model, or -1 for classes that are not a move */
+    private int[] moveOfClass = new int[0];
+
+    /** Turns the per-frame predictions into one decision per gesture */
+    private PredictionSmoother smoother;
+
+    /** Whether a round's result is being shown, during which new gestures are ignored */
+    private boolean roundInProgress;
 
     /** Button to exit the app */
     private Button exitButton;
@@ -34,24 +84,30 @@ public class RockPaperScissors {
     /** Manages the TensorFlow model used for image classification */
     private ModelManager model;
 
+    /** Completes when the model has been loaded and warmed up in the background */
+    private CompletableFuture<ModelManager> modelReady;
+
     /** Controls the camera capture and provides frames to the TensorFlow model for classification */
     private CameraController cameraController;
 
     /**
      * Constructor for the ModelDemo class.
-     * Initializes the camera controller, model manager, image view, prediction label, and exit button.
+     * Initializes the camera controller, image view, prediction label, and exit button,
+     * and starts loading the model manager in the background.
      */
     public RockPaperScissors() {
         cameraController = new CameraController();
-        model = new ModelManager();
+        modelReady = ModelManager.loadAsync();
         cameraView = new ImageView();
         predictionLabel = getPredictionLabel();
         exitButton = new Button("Exit");
 
-        userChoice = null;
-        computerChoice = null;
-        options = new String[]{"rock", "paper", "scissors"};
+        userMove = -1;
+        computerMove = -1;
         promptLabel = new Label("Make your choice!");
+
+        // Handle each decision on the JavaFX thread
+        smoother = new PredictionSmoother(decision -> Platform.runLater(() -> handleDecision(decision)));
     }
     
     /**
@@ -98,38 +154,27 @@ public class RockPaperScissors {
         window.setScene(mainScene);
         window.show();
 
-        // Start capturing the webcam
-        cameraController.captureCamera(cameraView, model);
+        // Start capturing the webcam once the model has loaded in the background
+        modelReady.thenAccept(loaded -> Platform.runLater(() -> {
+            model = loaded;
+            cameraController.captureCamera(cameraView, model);
+        }));
 
-        // Update the prediction label
-        updatePredictionLabel();
+        // Act on the gesture as soon as the smoothed predictions settle on it
+        cameraController.addPredictionListener(smoother);
     }
 
     public void getComputerChoice() {
-        int randomIndex = (int)(Math.random() * 3);
-        computerChoice = options[randomIndex];
+        computerMove = (int)(Math.random() * MOVES.length);
     }
 
     public String determineWinner() {
-        String result = "Computer choice: " + computerChoice + "\n";
-
-        if (userChoice.equals(computerChoice)) {
-            result += "Tie!";
-        }
-        else if (userChoice.equals("rock") && computerChoice.equals("scissors") ||
-            userChoice.equals("paper") && computerChoice.equals("rock") ||
-            userChoice.equals("scissors") && computerChoice.equals("paper")) {
-                result += "You win!";
-        }
-        else {
-            result += "You lose :(";
-        }
-
-        return result;
+        return RESULT_TEXT[userMove][computerMove];
     }
 
     public void play() {
         String result = determineWinner();
+        roundInProgress = true;
 
         PauseTransition delay = new PauseTransition(Duration.seconds(5));
         delay.setOnFinished(event -> {
@@ -139,6 +184,10 @@ public class RockPaperScissors {
                 PauseTransition delay2 = new PauseTransition(Duration.seconds(5));
                 delay2.setOnFinished(event2 -> {
                     promptLabel.setText("Make your choice!");
+
+                    // Forget the gestures decided during this round, so holding one starts the next round
+                    smoother.reset();
+                    roundInProgress = false;
                 });
 
                 delay2.play();
@@ -174,31 +223,47 @@ public class RockPaperScissors {
     }
 
     /**
-     * Updates the prediction label with the predicted class and score from the camera controller.
-     * Uses a timeline to update the label every second.
+     * Plays a round with the gesture the user settled on and updates the prediction label.
+     * Runs on the JavaFX thread; gestures made while a result is shown are ignored.
+     *
+     * @param decision the smoothed prediction of the user's gesture
      */
-    private void updatePredictionLabel() {
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(5), event -> {
-            // Get the predicted class and score from the CameraController
-            String predictedClass = cameraController.getPredictedClass();
-            double predictedScore = cameraController.getPredictedScore();
+    private void handleDecision(Prediction decision) {
+        if (roundInProgress) {
+            return;
+        }
 
-            // Update the prediction label with the guess, predicted class, and score
-            if (predictedClass != null) {
-                userChoice = predictedClass.substring(predictedClass.indexOf(" ") + 1);
+        int move = getMove(decision.getClassIndex());
 
-                getComputerChoice();
-                play();
+        // Ignore gestures that are not one of the moves
+        if (move < 0) {
+            return;
+        }
 
-                Platform.runLater(() -> predictionLabel.setText("User: " + userChoice + " (" + predictedScore + ")"));
-            }
-        }));
-        
-        // Specify that the animation should repeat indefinitely
-        timeline.setCycleCount(Timeline.INDEFINITE);
+        userMove = move;
+
+        getComputerChoice();
+        play();
+
+        predictionLabel.setText("User: " + MOVE_NAMES[move] + " (" + decision.getScore() + ")");
+    }
+
+    /**
+     * Looks up the move a class of the model stands for.
+     * The table is built from the class names once, and again only if a reload changes the labels.
+     *
+     * @param classIndex the index of the predicted class, or Prediction.UNKNOWN
+     * @return the move, or -1 if the class is unknown or not a move
+     */
+    private int getMove(int classIndex) {
+        LabelTable labels = model.getLabelTable();
+
+        if (labels != labelTable) {
+            labelTable = labels;
+            moveOfClass = labels == null ? new int[0] : labels.mapNames(MOVE_NAMES, MOVES, -1);
+        }
 
-        // Start the animation
-        timeline.play();
+        return classIndex >= 0 && classIndex < moveOfClass.length ? moveOfClass[classIndex] : -1;
     }
 
 }
@@ -0,0 +1,124 @@
+package com.codedotorg;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The TensorFlow threading settings used when a model's session is created.
+ * They are passed to TensorFlow as a serialized ConfigProto, written by hand
+ * so the app does not need the TensorFlow protobuf classes.
+ */
+public final class SessionOptions {
+
+    /** Lets TensorFlow pick its thread counts from the number of cores */
+    public static final SessionOptions DEFAULT = new SessionOptions(0, 0);
+
+    /** The ConfigProto field number of intra_op_parallelism_threads */
+    private static final int INTRA_OP_FIELD = 2;
+
+    /** The ConfigProto field number of inter_op_parallelism_threads */
+    private static final int INTER_OP_FIELD = 5;
+
+    /** The number of threads a single operation such as a convolution may use, 0 for the default */
+    private final int intraOpThreads;
+
+    /** The number of independent operations that may run at the same time, 0 for the default */
+    private final int interOpThreads;
+
+    /**
+     * Constructs threading settings for a session.
+     *
+     * @param intraOpThreads the threads a single operation may use, 0 for TensorFlow's default
+     * @param interOpThreads the operations that may run at the same time, 0 for TensorFlow's default
+     */
+    public SessionOptions(int intraOpThreads, int interOpThreads) {
+        if (intraOpThreads < 0 || interOpThreads < 0) {
+            throw new IllegalArgumentException("Thread counts must not be negative");
+        }
+
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+    }
+
+    /**
+     * Splits the machine's cores between a number of workers that run the model at the same time,
+     * so the workers do not compete for the same cores.
+     *
+     * @param workers the number of threads that will run the model concurrently
+     * @return settings giving each run an equal share of the cores
+     */
+    public static SessionOptions forWorkers(int workers) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new SessionOptions(Math.max(1, cores / Math.max(1, workers)), 1);
+    }
+
+    /**
+     * Returns the number of threads a single operation may use.
+     *
+     * @return the intra-op thread count, 0 for TensorFlow's default
+     */
+    public int getIntraOpThreads() {
+        return intraOpThreads;
+    }
+
+    /**
+     * Returns the number of independent operations that may run at the same time.
+     *
+     * @return the inter-op thread count, 0 for TensorFlow's default
+     */
+    public int getInterOpThreads() {
+        return interOpThreads;
+    }
+
+    /**
+     * Returns whether these settings leave every thread count to TensorFlow.
+     *
+     * @return true if no thread count is set
+     */
+    public boolean isDefault() {
+        return intraOpThreads == 0 && interOpThreads == 0;
+    }
+
+    /**
+     * Serializes these settings as a tensorflow.ConfigProto message.
+     *
+     * @return the ConfigProto bytes
+     */
+    public byte[] toConfigProto() {
+        ByteArrayOutputStream proto = new ByteArrayOutputStream();
+
+        if (intraOpThreads > 0) {
+            writeVarintField(proto, INTRA_OP_FIELD, intraOpThreads);
+        }
+
+        if (interOpThreads > 0) {
+            writeVarintField(proto, INTER_OP_FIELD, interOpThreads);
+        }
+
+        return proto.toByteArray();
+    }
+
+    /**
+     * Writes one varint field in the protobuf wire format.
+     *
+     * @param proto the message being written
+     * @param field the field number
+     * @param value the non-negative value
+     */
+    private static void writeVarintField(ByteArrayOutputStream proto, int field, int value) {
+        // The tag holds the field number and wire type 0 (varint)
+        proto.write(field << 3);
+
+        // Seven bits per byte, with the high bit set on every byte but the last
+        while (value >= 0x80) {
+            proto.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        proto.write(value);
+    }
+
+    @Override
+    public String toString() {
+        return "intraOpThreads=" + intraOpThreads + " interOpThreads=" + interOpThreads;
+    }
+}
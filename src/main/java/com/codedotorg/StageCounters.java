@@ -0,0 +1,74 @@
+package com.codedotorg;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the frames one pipeline stage has processed and the frames it
+ * dropped because a newer frame replaced them before they were used.
+ */
+public final class StageCounters {
+
+    /** The name of the stage, used when the counters are printed */
+    private final String name;
+
+    /** The number of frames the stage has finished */
+    private final AtomicLong processed = new AtomicLong();
+
+    /** The number of frames that were replaced before the stage used them */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructs counters for a named stage.
+     *
+     * @param name the name of the stage
+     */
+    public StageCounters(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return the stage name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of frames the stage has finished.
+     *
+     * @return the processed frame count
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of frames that were replaced before the stage used them.
+     *
+     * @return the dropped frame count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Records that the stage finished a frame.
+     */
+    void recordProcessed() {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Records that a frame was replaced before the stage used it.
+     */
+    void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": processed=" + processed.get() + " dropped=" + dropped.get();
+    }
+}
@@ -0,0 +1,160 @@
+package com.codedotorg;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Records how long each step of the app's startup takes, measured from the moment the JVM started.
+ * Steps that run in parallel, such as loading OpenCV and the model, each get their own line,
+ * so the report shows both the time spent per step and when the app became ready.
+ * The cold start is compared with a target, set with -Dtmexample.startup.target.ms.
+ */
+public final class StartupTimeline {
+
+    /** The startup time in milliseconds the report compares against, unless set by the system property */
+    private static final long DEFAULT_TARGET_MILLIS = 3000;
+
+    /** The System.nanoTime() at which the JVM started */
+    private static final long JVM_START_NANOS =
+        System.nanoTime() - ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000L;
+
+    /** The recorded steps and milestones; guarded by the list */
+    private static final List<Entry> ENTRIES = new ArrayList<>();
+
+    /** Whether the report has been printed by printReportOnce() */
+    private static final AtomicBoolean REPORTED = new AtomicBoolean();
+
+    /** One recorded step, or a milestone if it took no time */
+    private static final class Entry {
+        private final String name;
+        private final long startNanos;
+        private final long endNanos;
+
+        private Entry(String name, long startNanos, long endNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Runs a startup step and records how long it took.
+     *
+     * @param step the name of the step
+     * @param work the work of the step
+     * @param <T> the type of the step's result
+     * @return the result of the work
+     */
+    public static <T> T time(String step, Supplier<T> work) {
+        long start = System.nanoTime();
+
+        try {
+            return work.get();
+        } finally {
+            record(step, start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Runs a startup step without a result and records how long it took.
+     *
+     * @param step the name of the step
+     * @param work the work of the step
+     */
+    public static void time(String step, Runnable work) {
+        long start = System.nanoTime();
+
+        try {
+            work.run();
+        } finally {
+            record(step, start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records a startup step that was timed elsewhere.
+     *
+     * @param step the name of the step
+     * @param startNanos the System.nanoTime() at which the step started
+     * @param endNanos the System.nanoTime() at which the step ended
+     */
+    public static void record(String step, long startNanos, long endNanos) {
+        synchronized (ENTRIES) {
+            ENTRIES.add(new Entry(step, startNanos, endNanos));
+        }
+    }
+
+    /**
+     * Records that a milestone, such as the first prediction, has been reached now.
+     *
+     * @param milestone the name of the milestone
+     */
+    public static void mark(String milestone) {
+        long now = System.nanoTime();
+        record(milestone, now, now);
+    }
+
+    /**
+     * Returns the startup time the report compares against.
+     *
+     * @return the target in milliseconds
+     */
+    public static long getTargetMillis() {
+        return Long.getLong("tmexample.startup.target.ms", DEFAULT_TARGET_MILLIS);
+    }
+
+    /**
+     * Returns a report of every recorded step and milestone in the order they started.
+     * Each line shows when the step started and how long it took, in milliseconds since the
+     * JVM started. The last line compares the latest end with the target.
+     *
+     * @return the multi-line report
+     */
+    public static String report() {
+        List<Entry> entries;
+
+        synchronized (ENTRIES) {
+            entries = new ArrayList<>(ENTRIES);
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.startNanos));
+
+        StringBuilder report = new StringBuilder("Startup timeline (ms since JVM start):\n");
+        long lastEnd = JVM_START_NANOS;
+
+        for (Entry entry : entries) {
+            double start = (entry.startNanos - JVM_START_NANOS) / 1e6;
+
+            if (entry.startNanos == entry.endNanos) {
+                report.append(String.format("  %8.1f  %8s  %s%n", start, "*", entry.name));
+            }
+            else {
+                report.append(String.format("  %8.1f  %8.1f  %s%n", start, (entry.endNanos - entry.startNanos) / 1e6, entry.name));
+            }
+
+            lastEnd = Math.max(lastEnd, entry.endNanos);
+        }
+
+        long total = (lastEnd - JVM_START_NANOS) / 1_000_000L;
+        long target = getTargetMillis();
+
+        report.append(String.format("  cold start %d ms, target %d ms: %s", total, target, total <= target ? "met" : "missed"));
+        return report.toString();
+    }
+
+    /**
+     * Prints the report to the console the first time it is called.
+     */
+    public static void printReportOnce() {
+        if (REPORTED.compareAndSet(false, true)) {
+            System.out.println(report());
+        }
+    }
+}
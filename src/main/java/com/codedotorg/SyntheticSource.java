@@ -0,0 +1,58 @@
+package com.codedotorg;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Generates frames of random pixels, for load testing the pipeline without any input files.
+ */
+public class SyntheticSource implements FrameSource {
+
+    /** The width of the generated frames */
+    private final int width;
+
+    /** The height of the generated frames */
+    private final int height;
+
+    /** Spaces frames at the given frame rate */
+    private final FramePacer pacer;
+
+    /**
+     * Constructs a generator of random BGR frames.
+     *
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param fps the rate at which frames are generated
+     * @param maxSpeed whether to ignore the frame rate and generate as fast as possible
+     */
+    public SyntheticSource(int width, int height, double fps, boolean maxSpeed) {
+        this.width = width;
+        this.height = height;
+        this.pacer = new FramePacer(fps, maxSpeed);
+    }
+
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        pacer.awaitNextFrame();
+
+        // Allocates only on the first frame; later frames reuse the Mat's memory
+        frame.create(height, width, CvType.CV_8UC3);
+        Core.randu(frame, 0, 256);
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "Synthetic " + width + "x" + height;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,7 +1,7 @@
 package com.codedotorg;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.CompletableFuture;
+
 import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
@@ -9,10 +9,12 @@ import javafx.scene.control.Label;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 
 public class Unlock {
 
+    /** The value of each entry's digit, by its position in the passcode */
+    private static final int[] PLACE_VALUES = {1000, 100, 10, 1};
+
     /** The main window of the app */
     private Stage window;
 
@@ -25,7 +27,10 @@ public class Unlock {
     private Label promptLabel;
     private int passcode;
     private int count;
-    private String[] userPasscode;
+    private int userPasscode;
+
+    /** Turns the per-frame predictions into one decision per gesture */
+    private PredictionSmoother smoother;
 
     /** Button to exit the app */
     private Button exitButton;
@@ -33,24 +38,32 @@ public class Unlock {
     /** Manages the TensorFlow model used for image classification */
     private ModelManager model;
 
+    /** Completes when the model has been loaded and warmed up in the background */
+    private CompletableFuture<ModelManager> modelReady;
+
     /** Controls the camera capture and provides frames to the TensorFlow model for classification */
     private CameraController cameraController;
 
     /**
      * Constructor for the ModelDemo class.
-     * Initializes the camera controller, model manager, image view, prediction label, and exit button.
+     * Initializes the camera controller, image view, prediction label, and exit button,
+     * and starts loading the model manager in the background.
      */
     public Unlock() {
         cameraController = new CameraController();
-        model = new ModelManager();
+        modelReady = ModelManager.loadAsync();
         cameraView = new ImageView();
         predictionLabel = getPredictionLabel();
         exitButton = new Button("Exit");
 
         promptLabel = new Label("Think of a number between 1 and 100:");
-        passcode = 1234;
+        // Each gesture enters its class index plus one, so thumbs up, down, up, down unlocks the bundled model
+        passcode = 1212;
         count = 0;
-        userPasscode = new String[4];
+        userPasscode = 0;
+
+        // Handle each decision on the JavaFX thread
+        smoother = new PredictionSmoother(decision -> Platform.runLater(() -> handleDecision(decision)));
     }
     
     /**
@@ -97,31 +110,18 @@ public class Unlock {
         window.setScene(mainScene);
         window.show();
 
-        // Start capturing the webcam
-        cameraController.captureCamera(cameraView, model);
-
-        // Update the prediction label
-        updatePredictionLabel();
-    }
-
-    public boolean checkPasscode(String[] user) {
-        String result = convertUserToString(user);
-
-        if (result.equals(passcode)) {
-            return true;
-        }
+        // Start capturing the webcam once the model has loaded in the background
+        modelReady.thenAccept(loaded -> Platform.runLater(() -> {
+            model = loaded;
+            cameraController.captureCamera(cameraView, model);
+        }));
 
-        return false;
+        // Act on the gesture as soon as the smoothed predictions settle on it
+        cameraController.addPredictionListener(smoother);
     }
 
-    public String convertUserToString(String[] user) {
-        String result = "";
-
-        for (String selection : user) {
-            result += selection;
-        }
-
-        return result;
+    public boolean checkPasscode(int user) {
+        return user == passcode;
     }
 
     /**
@@ -150,39 +150,44 @@ public class Unlock {
     }
 
     /**
-     * Updates the prediction label with the predicted class and score from the camera controller.
-     * Uses a timeline to update the label every second.
+     * Records the gesture the user settled on as the next passcode entry and
+     * checks the passcode once it is complete. Runs on the JavaFX thread.
+     *
+     * @param decision the smoothed prediction of the user's gesture
      */
-    private void updatePredictionLabel() {
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(3), event -> {
-            // Get the predicted class and score from the CameraController
-            String predictedClass = cameraController.getPredictedClass();
-            double predictedScore = cameraController.getPredictedScore();
-
-            // Update the prediction label with the guess, predicted class, and score
-            if (predictedClass != null) {
-                String userChoice = predictedClass.substring(predictedClass.indexOf(" ") + 1);
-                count++;
-
-                if (count != 4) {
-                    userPasscode[count] = userChoice;
-                }
-                else if (checkPasscode(userPasscode)) {
-                    promptLabel.setText("Access Granted!");
-                }
-                else {
-                    promptLabel.setText("Incorrect PIN");
-                }
-
-                Platform.runLater(() -> predictionLabel.setText("User: " + predictedClass + " - " + predictedScore));
+    private void handleDecision(Prediction decision) {
+        String predictedClass = decision.getLabel();
+        double predictedScore = decision.getScore();
+
+        // A frame the model was unsure about enters nothing
+        if (decision.isUnknown()) {
+            return;
+        }
+
+        // Only the first nine classes have a digit
+        int digit = decision.getClassIndex() + 1;
+
+        if (digit > 9) {
+            return;
+        }
+
+        userPasscode += digit * PLACE_VALUES[count];
+        count++;
+
+        // Check the passcode once every digit has been entered, then start over
+        if (count == PLACE_VALUES.length) {
+            if (checkPasscode(userPasscode)) {
+                promptLabel.setText("Access Granted!");
             }
-        }));
-        
-        // Specify that the animation should repeat indefinitely
-        timeline.setCycleCount(Timeline.INDEFINITE);
+            else {
+                promptLabel.setText("Incorrect PIN");
+            }
+
+            count = 0;
+            userPasscode = 0;
+        }
 
-        // Start the animation
-        timeline.play();
+        predictionLabel.setText("User: " + predictedClass + " - " + predictedScore);
     }
 
 }
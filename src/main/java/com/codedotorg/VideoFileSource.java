@@ -0,0 +1,72 @@
+package com.codedotorg;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Replays a video file, either at the file's own frame rate or as fast as it can be decoded.
+ */
+public class VideoFileSource implements FrameSource {
+
+    /** The path of the video file */
+    private final String path;
+
+    /** Whether to ignore the file's frame rate */
+    private final boolean maxSpeed;
+
+    /** Whether to start again from the first frame at the end of the file */
+    private final boolean loop;
+
+    /** The open video, or null before open() */
+    private VideoCapture video;
+
+    /** Spaces frames at the file's frame rate */
+    private FramePacer pacer;
+
+    /**
+     * Constructs a source for a video file.
+     *
+     * @param path the path of the video file
+     * @param maxSpeed whether to ignore the file's frame rate and decode as fast as possible
+     * @param loop whether to start again from the first frame at the end of the file
+     */
+    public VideoFileSource(String path, boolean maxSpeed, boolean loop) {
+        this.path = path;
+        this.maxSpeed = maxSpeed;
+        this.loop = loop;
+    }
+
+    @Override
+    public boolean open() {
+        video = new VideoCapture(path);
+
+        // Files without a frame rate in their header are replayed unpaced
+        pacer = new FramePacer(video.get(Videoio.CAP_PROP_FPS), maxSpeed);
+        return video.isOpened();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        pacer.awaitNextFrame();
+
+        if (video.read(frame)) {
+            return true;
+        }
+
+        // Rewind to the first frame and try once more
+        return loop && video.set(Videoio.CAP_PROP_POS_FRAMES, 0) && video.read(frame);
+    }
+
+    @Override
+    public String getName() {
+        return "Video " + path;
+    }
+
+    @Override
+    public void close() {
+        if (video != null) {
+            video.release();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.codedotorg;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Reads frames from a camera attached to the machine.
+ * The camera delivers frames at its own rate, so no pacing is applied.
+ */
+public class WebcamSource implements FrameSource {
+
+    /** The index of the camera, 0 for the system default */
+    private final int deviceIndex;
+
+    /** The open camera, or null before open() */
+    private VideoCapture camera;
+
+    /**
+     * Constructs a source for the given camera.
+     *
+     * @param deviceIndex the index of the camera, 0 for the system default
+     */
+    public WebcamSource(int deviceIndex) {
+        this.deviceIndex = deviceIndex;
+    }
+
+    @Override
+    public boolean open() {
+        camera = new VideoCapture(deviceIndex);
+        return camera.isOpened();
+    }
+
+    @Override
+    public boolean read(Mat frame) {
+        return camera.read(frame);
+    }
+
+    @Override
+    public String getName() {
+        return "Camera " + deviceIndex;
+    }
+
+    @Override
+    public void close() {
+        if (camera != null) {
+            camera.release();
+        }
+    }
+}